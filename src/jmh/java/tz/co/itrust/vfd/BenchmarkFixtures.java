@@ -0,0 +1,84 @@
+package tz.co.itrust.vfd;
+
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+import tz.co.itrust.vfd.entity.VfdReceipt;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Representative receipt payloads shared by the benchmarks
+ */
+public final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    public static VfdReceiptRequest request(int lineItems) {
+        List<VfdReceiptRequest.VfdInvoiceDetail> details = new ArrayList<>(lineItems);
+        for (int i = 0; i < lineItems; i++) {
+            details.add(VfdReceiptRequest.VfdInvoiceDetail.builder()
+                    .description("Item " + i + " - assorted goods")
+                    .qty(1 + i % 5)
+                    .taxcode(1 + i % 5)
+                    .amt(new BigDecimal("1250.00").add(BigDecimal.valueOf(i)))
+                    .build());
+        }
+        return VfdReceiptRequest.builder()
+                .idate("2025-01-15")
+                .itime("14:30:15")
+                .custinvoiceno("INV-2025-000123")
+                .custidtype(1)
+                .custid("123456789")
+                .custname("John Doe")
+                .mobilenum("255712345678")
+                .branch("DAR-001")
+                .department("Retail")
+                .devicenumber("DEV-0001")
+                .paytype(1)
+                .username("cashier01")
+                .invoiceDetails(details)
+                .build();
+    }
+
+    public static VfdReceiptResponse response() {
+        return VfdReceiptResponse.builder()
+                .rctvnum("https://verify.tra.go.tz/ABCDEF123456_143015")
+                .rctvcode("ABCDEF123456")
+                .znumber("20250115")
+                .vfdinvoicenum("INV-2025-000123")
+                .idate("2025-01-15")
+                .itime("14:30:15")
+                .senttime("2025-01-15 14:30:16")
+                .message("Success")
+                .status("success")
+                .qrpath("/qrcodes/ABCDEF123456.png")
+                .qrcode_uri("https://verify.tra.go.tz/ABCDEF123456_143015")
+                .statusCodeText("HTTP_OK")
+                .statusCode(200)
+                .build();
+    }
+
+    public static VfdReceipt storedReceipt() {
+        VfdReceiptResponse response = response();
+        return VfdReceipt.builder()
+                .id(42L)
+                .idate(response.getIdate())
+                .itime(response.getItime())
+                .custinvoiceno("INV-2025-000123")
+                .createdAt(LocalDateTime.of(2025, 1, 15, 14, 30, 16))
+                .receiptNumber(response.getVfdinvoicenum())
+                .rctvnum(response.getRctvnum())
+                .rctvcode(response.getRctvcode())
+                .znumber(response.getZnumber())
+                .qrpath(response.getQrpath())
+                .qrcodeUri(response.getQrcode_uri())
+                .statusCodeText(response.getStatusCodeText())
+                .vfdStatus(response.getStatus())
+                .vfdHttpStatus(response.getStatusCode())
+                .build();
+    }
+}
@@ -0,0 +1,56 @@
+package tz.co.itrust.vfd.config;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the per-request cost of API key authentication: no key, a key already verified (cache hit)
+ * and a key checked against its BCrypt hash every time (cache disabled)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ApiKeyAuthenticationFilterBenchmark {
+
+    private static final String API_KEY = "pos-gateway.3f9c2e7a41b84d6e9a0c";
+
+    @Param({"1000", "0"})
+    public int cacheSize;
+
+    private ApiKeyAuthenticationFilter filter;
+
+    @Setup
+    public void setUp() {
+        String hash = new BCryptPasswordEncoder().encode(API_KEY.substring(API_KEY.indexOf('.') + 1));
+        filter = new ApiKeyAuthenticationFilter(Map.of("pos-gateway", hash), cacheSize, 0, 0);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse withoutKey() throws Exception {
+        return doFilter(null);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse withKey() throws Exception {
+        return doFilter(API_KEY);
+    }
+
+    private MockHttpServletResponse doFilter(String apiKey) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/vfd/receipt");
+        if (apiKey != null) {
+            request.addHeader(ApiKeyAuthenticationFilter.API_KEY_HEADER, apiKey);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+}
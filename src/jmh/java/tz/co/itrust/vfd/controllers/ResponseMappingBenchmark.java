@@ -0,0 +1,42 @@
+package tz.co.itrust.vfd.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import tz.co.itrust.vfd.BenchmarkFixtures;
+import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building and serialising the GenericRestResponse returned by POST /receipt
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseMappingBenchmark {
+
+    private GenericResponseMapper responseMapper;
+    private ObjectMapper objectMapper;
+    private VfdReceiptResponse response;
+
+    @Setup
+    public void setUp() {
+        responseMapper = new GenericResponseMapper();
+        objectMapper = new ObjectMapper();
+        response = BenchmarkFixtures.response();
+    }
+
+    @Benchmark
+    public Map<String, Object> buildResponseMaps() {
+        return responseMapper.buildGenericResponse(responseMapper.buildResponseData(response));
+    }
+
+    @Benchmark
+    public byte[] buildAndSerialize() throws Exception {
+        return objectMapper.writeValueAsBytes(responseMapper.buildGenericResponse(responseMapper.buildResponseData(response)));
+    }
+}
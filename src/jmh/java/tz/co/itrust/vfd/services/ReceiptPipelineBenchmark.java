@@ -0,0 +1,67 @@
+package tz.co.itrust.vfd.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import tz.co.itrust.vfd.BenchmarkFixtures;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+import tz.co.itrust.vfd.entity.VfdReceipt;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the CPU-bound steps of VfdService.processReceipt (ReceiptMapper and the request checks), excluding
+ * the database and the Power-VFD call
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReceiptPipelineBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    private int lineItems;
+
+    private ReceiptMapper receiptMapper;
+    private ObjectMapper objectMapper;
+    private VfdReceiptRequest request;
+    private VfdReceiptResponse response;
+    private VfdReceipt storedReceipt;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        receiptMapper = new ReceiptMapper(objectMapper, "F1000", "YzJVME1qTnFWV2h6TURJekxUTTROR3B6WVVveU1ESXlMVEF5TFRBektrWXhNREF3S2pBNU9qVTJPakV6TURNMExYQmpkRE15T1MweU16Z3lNdz09");
+        request = BenchmarkFixtures.request(lineItems);
+        response = BenchmarkFixtures.response();
+        storedReceipt = BenchmarkFixtures.storedReceipt();
+    }
+
+    @Benchmark
+    public Object transformRequestToExternalFormat() {
+        return receiptMapper.transformRequestToExternalFormat(request);
+    }
+
+    @Benchmark
+    public byte[] transformAndSerialize() throws Exception {
+        return objectMapper.writeValueAsBytes(receiptMapper.transformRequestToExternalFormat(request));
+    }
+
+    @Benchmark
+    public VfdReceiptRequest validateRequest() {
+        VfdService.validateRequest(request);
+        return request;
+    }
+
+    @Benchmark
+    public VfdReceipt buildReceiptEntity() {
+        return receiptMapper.buildReceiptEntity(request, response);
+    }
+
+    @Benchmark
+    public VfdReceiptResponse buildResponseFromExistingReceipt() {
+        return receiptMapper.buildResponseFromExistingReceipt(storedReceipt);
+    }
+}
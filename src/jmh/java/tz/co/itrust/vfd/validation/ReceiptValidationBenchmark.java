@@ -0,0 +1,54 @@
+package tz.co.itrust.vfd.validation;
+
+import org.openjdk.jmh.annotations.*;
+import tz.co.itrust.vfd.BenchmarkFixtures;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+
+import javax.validation.Validation;
+import javax.validation.ValidatorFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reflective Bean Validation with the hand-written validator on valid requests
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReceiptValidationBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    private int lineItems;
+
+    private ValidatorFactory validatorFactory;
+    private ReceiptRequestValidator beanValidator;
+    private ReceiptRequestValidator fastValidator;
+    private VfdReceiptRequest request;
+
+    @Setup
+    public void setUp() {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        beanValidator = new ReceiptRequestValidator(validatorFactory.getValidator(), "bean");
+        fastValidator = new ReceiptRequestValidator(validatorFactory.getValidator(), "fast");
+        request = BenchmarkFixtures.request(lineItems);
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public VfdReceiptRequest beanValidation() {
+        beanValidator.validate(request);
+        return request;
+    }
+
+    @Benchmark
+    public VfdReceiptRequest fastValidation() {
+        fastValidator.validate(request);
+        return request;
+    }
+}
@@ -0,0 +1,51 @@
+package tz.co.itrust.vfd.loadtest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Power-VFD endpoint whose host does not answer: connections to it time out instead of being refused, as for a
+ * node that is down or unreachable behind a firewall.
+ *
+ * A non-routable address would do the same on a real network but cannot be relied on in every sandbox, so this
+ * listens on a loopback port with a backlog of one, fills the backlog and never accepts; the kernel then drops
+ * further SYNs and the connect times out.
+ */
+public class BlackholeEndpoint implements AutoCloseable {
+
+    private static final String PATH = "/power-vfd/apis/web/auth/receiver";
+
+    private final ServerSocket server;
+    private final List<Socket> backlog = new ArrayList<>();
+
+    public BlackholeEndpoint() throws IOException {
+        this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(server.getLocalSocketAddress(), 500);
+                backlog.add(socket);
+            } catch (SocketTimeoutException e) {
+                socket.close();
+                break;
+            }
+        }
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getLocalPort() + PATH;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Socket socket : backlog) {
+            socket.close();
+        }
+        server.close();
+    }
+}
@@ -0,0 +1,133 @@
+package tz.co.itrust.vfd.loadtest;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tz.co.itrust.vfd.services.InvoiceClaimService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Repeatable concurrency check of {@link InvoiceClaimService} against a real Postgres.
+ *
+ * Two claim services with their own connection pools stand in for two instances of the service. For each of
+ * {@code --rounds} invoices they claim at the same moment, first a fresh invoice and then one whose previous
+ * claim has expired; exactly one of them must win every time. Finally the holder of an expired lease must not
+ * release the claim of the request that took it over. Fails (exit code 1) on any violation.
+ *
+ * Run with: mvn -Ploadtest test-compile exec:exec -Dloadtest.main=tz.co.itrust.vfd.loadtest.InvoiceClaimRaceCheck
+ * -Dloadtest.args="--rounds=500"
+ */
+public class InvoiceClaimRaceCheck {
+
+    private static final long LEASE_MS = 60_000;
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        EmbeddedPostgres postgres = null;
+        String jdbcUrl = options.jdbcUrl();
+        if (jdbcUrl == null) {
+            postgres = EmbeddedPostgres.builder().start();
+            jdbcUrl = postgres.getJdbcUrl("postgres", "postgres");
+        }
+        int failures;
+        try (HikariDataSource first = pool(jdbcUrl, options, "claim-a");
+             HikariDataSource second = pool(jdbcUrl, options, "claim-b")) {
+            Flyway.configure().dataSource(first).load().migrate();
+            failures = run(options.claimRounds(), first, second);
+        } finally {
+            if (postgres != null) {
+                postgres.close();
+            }
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static int run(int rounds, HikariDataSource first, HikariDataSource second) throws Exception {
+        InvoiceClaimService a = new InvoiceClaimService(first, 5);
+        InvoiceClaimService b = new InvoiceClaimService(second, 5);
+        JdbcTemplate jdbc = new JdbcTemplate(first);
+        // Unique per run, so a shared database (--jdbc-url) can be reused
+        String prefix = "RACE-" + System.currentTimeMillis() + "-";
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        int failures = 0;
+        try {
+            int freshViolations = 0;
+            int takeoverViolations = 0;
+            for (int i = 0; i < rounds; i++) {
+                String invoice = prefix + i;
+                if (winners(executor, a, b, invoice) != 1) {
+                    freshViolations++;
+                }
+                // Expire the claim just won and race for it again
+                jdbc.update("UPDATE vfd_invoice_claims SET expires_at = now() - INTERVAL '1 second' WHERE custinvoiceno = ?",
+                        invoice);
+                if (winners(executor, a, b, invoice) != 1) {
+                    takeoverViolations++;
+                }
+            }
+            failures += report(freshViolations == 0, "concurrent claims on a new invoice: " + freshViolations
+                    + " of " + rounds + " rounds without exactly one winner");
+            failures += report(takeoverViolations == 0, "concurrent takeover of an expired claim: " + takeoverViolations
+                    + " of " + rounds + " rounds without exactly one winner");
+
+            String invoice = prefix + "release";
+            String expiredOwner = a.tryClaim(invoice, 1).orElseThrow();
+            Thread.sleep(20);
+            Optional<String> takeover = b.tryClaim(invoice, LEASE_MS);
+            a.release(invoice, expiredOwner);
+            boolean stillHeld = a.tryClaim(invoice, LEASE_MS).isEmpty();
+            failures += report(takeover.isPresent() && stillHeld,
+                    "expired lease taken over and kept after the previous holder's release: takeover "
+                            + takeover.isPresent() + ", still held " + stillHeld);
+        } finally {
+            executor.shutdownNow();
+            jdbc.update("DELETE FROM vfd_invoice_claims WHERE custinvoiceno LIKE ?", prefix + "%");
+        }
+        return failures;
+    }
+
+    /**
+     * Both services claim the invoice at the same moment; returns how many got it
+     */
+    private static int winners(ExecutorService executor, InvoiceClaimService a, InvoiceClaimService b, String invoice)
+            throws Exception {
+        CyclicBarrier start = new CyclicBarrier(2);
+        List<Future<Optional<String>>> claims = new ArrayList<>();
+        for (InvoiceClaimService service : List.of(a, b)) {
+            claims.add(executor.submit(() -> {
+                start.await();
+                return service.tryClaim(invoice, LEASE_MS);
+            }));
+        }
+        int won = 0;
+        for (Future<Optional<String>> claim : claims) {
+            if (claim.get().isPresent()) {
+                won++;
+            }
+        }
+        return won;
+    }
+
+    private static int report(boolean ok, String check) {
+        System.out.println((ok ? "OK: " : "FAIL: ") + check);
+        return ok ? 0 : 1;
+    }
+
+    private static HikariDataSource pool(String jdbcUrl, LoadTestOptions options, String name) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(jdbcUrl);
+        dataSource.setUsername(options.jdbcUser());
+        dataSource.setPassword(options.jdbcPassword());
+        dataSource.setPoolName(name);
+        dataSource.setMaximumPoolSize(2);
+        return dataSource;
+    }
+}
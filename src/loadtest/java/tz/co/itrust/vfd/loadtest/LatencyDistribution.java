@@ -0,0 +1,55 @@
+package tz.co.itrust.vfd.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Service-time distribution of the Power-VFD stub.
+ *
+ * Specs: {@code fixed:<ms>}, {@code uniform:<minMs>:<maxMs>}, {@code exponential:<meanMs>}
+ * and {@code lognormal:<medianMs>:<sigma>} (a long right tail, closest to the real receiver).
+ */
+public abstract class LatencyDistribution {
+
+    public abstract long sampleMillis();
+
+    public static LatencyDistribution parse(String spec) {
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "fixed": {
+                long millis = Long.parseLong(parts[1]);
+                return of(() -> millis, spec);
+            }
+            case "uniform": {
+                long min = Long.parseLong(parts[1]);
+                long max = Long.parseLong(parts[2]);
+                return of(() -> ThreadLocalRandom.current().nextLong(min, max + 1), spec);
+            }
+            case "exponential": {
+                double mean = Double.parseDouble(parts[1]);
+                return of(() -> Math.round(-mean * Math.log(1 - ThreadLocalRandom.current().nextDouble())), spec);
+            }
+            case "lognormal": {
+                double mu = Math.log(Double.parseDouble(parts[1]));
+                double sigma = Double.parseDouble(parts[2]);
+                return of(() -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian())), spec);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        }
+    }
+
+    private static LatencyDistribution of(LongSupplier sampler, String spec) {
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis() {
+                return sampler.getAsLong();
+            }
+
+            @Override
+            public String toString() {
+                return spec;
+            }
+        };
+    }
+}
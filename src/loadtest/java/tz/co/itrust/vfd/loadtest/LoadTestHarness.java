@@ -0,0 +1,283 @@
+package tz.co.itrust.vfd.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import tz.co.itrust.vfd.VfdApplication;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Self-contained load test of POST /receipt.
+ *
+ * Starts Postgres (embedded unless --jdbc-url is given), one or more Power-VFD stubs and one or more
+ * instances of the service in this JVM, drives /receipt with open-loop constant-rate load and reports
+ * throughput and latency percentiles. Fails (exit code 1) if any invoice was fiscalised more than once.
+ *
+ * Run with: mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--rate=200 --duration=60"
+ * Add --bulk-share=0.8 to have one device replay a backlog, e.g. with --app.vfd.scheduler.enabled=true.
+ * With --stubs=3, --slow-stub=0:500 or --down-stub=1 degrade one Power-VFD node for the measured run, and
+ * --blackhole-endpoints=1 adds an endpoint that never answers a connect.
+ */
+public class LoadTestHarness {
+
+    private static final int RECENT_INVOICES = 10_000;
+    private static final String BULK_DEVICE = "DEV-BULK";
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        List<AutoCloseable> resources = new ArrayList<>();
+        int exitCode;
+        try {
+            exitCode = run(options, resources);
+        } finally {
+            for (int i = resources.size() - 1; i >= 0; i--) {
+                try {
+                    resources.get(i).close();
+                } catch (Exception e) {
+                    System.err.println("Failed to stop " + resources.get(i) + ": " + e.getMessage());
+                }
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    private static int run(LoadTestOptions options, List<AutoCloseable> resources) throws Exception {
+        String jdbcUrl = options.jdbcUrl();
+        if (jdbcUrl == null) {
+            EmbeddedPostgres postgres = EmbeddedPostgres.builder().start();
+            resources.add(postgres);
+            jdbcUrl = postgres.getJdbcUrl("postgres", "postgres");
+        }
+
+        LatencyDistribution latency = LatencyDistribution.parse(options.stubLatency());
+        List<PowerVfdStub> stubs = new ArrayList<>();
+        for (int i = 0; i < options.stubCount(); i++) {
+            PowerVfdStub stub = new PowerVfdStub(latency, options.stubErrorRate()).start();
+            resources.add(stub);
+            stubs.add(stub);
+        }
+
+        List<String> upstreamUrls = stubs.stream().map(PowerVfdStub::url).collect(Collectors.toList());
+        for (int i = 0; i < options.blackholeEndpoints(); i++) {
+            BlackholeEndpoint blackhole = new BlackholeEndpoint();
+            resources.add(blackhole);
+            upstreamUrls.add(blackhole.url());
+        }
+
+        List<URI> targets = new ArrayList<>();
+        List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+        for (int i = 0; i < options.appInstances(); i++) {
+            ConfigurableApplicationContext context = startApplication(options, jdbcUrl, upstreamUrls);
+            resources.add(context);
+            contexts.add(context);
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            targets.add(URI.create("http://127.0.0.1:" + port + "/vfd/receipt"));
+        }
+
+        System.out.printf("Load test: rate=%d/s duration=%ds instances=%d stubs=%d stub-latency=%s stub-error-rate=%.3f%n",
+                options.rate(), options.durationSeconds(), targets.size(), stubs.size(), latency, options.stubErrorRate());
+
+        OpenLoopLoadGenerator generator = new OpenLoopLoadGenerator(
+                targets, new RequestBodies(options.lineItems(), options.repeatRatio(), options.bulkShare()), options.maxInFlight());
+
+        if (options.warmupSeconds() > 0) {
+            System.out.println("Warm-up: " + generator.run(options.rate(), options.warmupSeconds()).summary());
+        }
+        degradeStubs(options, stubs);
+        OpenLoopLoadGenerator.Result result = generator.run(options.rate(), options.durationSeconds());
+        System.out.println("Result:  " + result.summary());
+
+        for (int i = 0; i < stubs.size(); i++) {
+            System.out.printf("Stub %d (port %d): calls=%d simulated-errors=%d%n",
+                    i, stubs.get(i).port(), stubs.get(i).calls(), stubs.get(i).errors());
+        }
+        for (int i = 0; i < contexts.size(); i++) {
+            printSchedulerWait(i, contexts.get(i).getBean(MeterRegistry.class));
+            printDuplicateChecks(i, contexts.get(i).getBean(MeterRegistry.class));
+            printEndpoints(i, contexts.get(i).getBean(MeterRegistry.class));
+        }
+
+        Map<String, Integer> doubles = stubs.stream()
+                .flatMap(stub -> stub.fiscalised().entrySet().stream())
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get(), Integer::sum))
+                .entrySet().stream()
+                .filter(e -> e.getValue() > 1)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (!doubles.isEmpty()) {
+            System.out.println("FAIL: " + doubles.size() + " invoices fiscalised more than once, e.g. "
+                    + doubles.entrySet().stream().limit(10).collect(Collectors.toList()));
+            return 1;
+        }
+        System.out.println("OK: no invoice was fiscalised more than once");
+        return 0;
+    }
+
+    private static void degradeStubs(LoadTestOptions options, List<PowerVfdStub> stubs) {
+        if (options.slowStub() != null) {
+            String[] slow = options.slowStub().split(":");
+            stubs.get(Integer.parseInt(slow[0])).setExtraDelayMillis(Long.parseLong(slow[1]));
+            System.out.println("Stub " + slow[0] + " slowed down by " + slow[1] + " ms");
+        }
+        if (options.downStub() >= 0) {
+            stubs.get(options.downStub()).stop();
+            System.out.println("Stub " + options.downStub() + " stopped");
+        }
+    }
+
+    /**
+     * Upstream scheduler queue wait of the bulk device against all other devices (only when vfd.scheduler.enabled)
+     */
+    private static void printSchedulerWait(int instance, MeterRegistry registry) {
+        long bulkCount = 0, otherCount = 0;
+        double bulkTotal = 0, otherTotal = 0, bulkMax = 0, otherMax = 0;
+        for (Timer timer : registry.find("vfd.scheduler.wait").timers()) {
+            if (BULK_DEVICE.equals(timer.getId().getTag("tenant"))) {
+                bulkCount += timer.count();
+                bulkTotal += timer.totalTime(TimeUnit.MILLISECONDS);
+                bulkMax = Math.max(bulkMax, timer.max(TimeUnit.MILLISECONDS));
+            } else {
+                otherCount += timer.count();
+                otherTotal += timer.totalTime(TimeUnit.MILLISECONDS);
+                otherMax = Math.max(otherMax, timer.max(TimeUnit.MILLISECONDS));
+            }
+        }
+        if (bulkCount + otherCount == 0) {
+            return;
+        }
+        System.out.printf("Instance %d scheduler wait: bulk n=%d mean=%.1fms max=%.1fms | others n=%d mean=%.1fms max=%.1fms%n",
+                instance, bulkCount, bulkCount > 0 ? bulkTotal / bulkCount : 0, bulkMax,
+                otherCount, otherCount > 0 ? otherTotal / otherCount : 0, otherMax);
+    }
+
+    /**
+     * Database work of the duplicate check (lookups and claims) and how often the invoice filter skipped it
+     */
+    private static void printDuplicateChecks(int instance, MeterRegistry registry) {
+        Timer lookups = registry.find("vfd.receipt.stage").tag("stage", "duplicate_lookup").timer();
+        double misses = registry.find("vfd.invoice-filter.checks").tag("result", "miss").counters().stream()
+                .mapToDouble(c -> c.count()).sum();
+        double maybes = registry.find("vfd.invoice-filter.checks").tag("result", "maybe").counters().stream()
+                .mapToDouble(c -> c.count()).sum();
+        double falsePositives = registry.find("vfd.invoice-filter.false-positives").counters().stream()
+                .mapToDouble(c -> c.count()).sum();
+        if (lookups == null) {
+            return;
+        }
+        System.out.printf("Instance %d duplicate check: db calls=%d mean=%.2fms total=%.0fms | filter miss=%.0f maybe=%.0f false-positive=%.0f%n",
+                instance, lookups.count(), lookups.mean(TimeUnit.MILLISECONDS), lookups.totalTime(TimeUnit.MILLISECONDS),
+                misses, maybes, falsePositives);
+    }
+
+    /**
+     * Submissions per Power-VFD endpoint and outcome, with mean latency, and how often each endpoint was ejected
+     */
+    private static void printEndpoints(int instance, MeterRegistry registry) {
+        Map<String, List<Timer>> byEndpoint = registry.find("vfd.upstream.requests").timers().stream()
+                .collect(Collectors.groupingBy(timer -> timer.getId().getTag("endpoint"), TreeMap::new, Collectors.toList()));
+        byEndpoint.forEach((endpoint, timers) -> {
+            StringBuilder line = new StringBuilder();
+            for (Timer timer : timers) {
+                if (timer.count() > 0) {
+                    line.append(String.format(" %s=%d (mean %.1fms)", timer.getId().getTag("outcome"),
+                            timer.count(), timer.mean(TimeUnit.MILLISECONDS)));
+                }
+            }
+            double ejections = registry.find("vfd.upstream.ejections").tag("endpoint", endpoint).counters().stream()
+                    .mapToDouble(c -> c.count()).sum();
+            System.out.printf("Instance %d endpoint %s:%s ejections=%.0f%n", instance, endpoint, line, ejections);
+        });
+    }
+
+    private static ConfigurableApplicationContext startApplication(LoadTestOptions options, String jdbcUrl, List<String> upstreamUrls) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=" + jdbcUrl,
+                "--spring.datasource.username=" + options.jdbcUser(),
+                "--spring.datasource.password=" + options.jdbcPassword(),
+                "--vfd.power-vfd-urls=" + String.join(",", upstreamUrls),
+                "--logging.level.tz.co.itrust.vfd=WARN",
+                "--logging.level.org.hibernate.SQL=WARN",
+                "--logging.level.org.hibernate.type.descriptor.sql.BasicBinder=WARN"));
+        // Anything given as --app.<property>=<value> is passed through to the service
+        options.passThrough("app.").forEach((k, v) -> args.add("--" + k + "=" + v));
+        return new SpringApplicationBuilder(VfdApplication.class).run(args.toArray(new String[0]));
+    }
+
+    /**
+     * Generates /receipt bodies with unique invoice numbers, replaying a recent one for a fraction of requests
+     */
+    static class RequestBodies implements Supplier<byte[]> {
+
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final String runId = Long.toString(System.currentTimeMillis(), 36);
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicReferenceArray<String> recent = new AtomicReferenceArray<>(RECENT_INVOICES);
+        private final AtomicInteger recentCount = new AtomicInteger();
+        private final int lineItems;
+        private final double repeatRatio;
+        private final double bulkShare;
+
+        RequestBodies(int lineItems, double repeatRatio, double bulkShare) {
+            this.lineItems = lineItems;
+            this.repeatRatio = repeatRatio;
+            this.bulkShare = bulkShare;
+        }
+
+        @Override
+        public byte[] get() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String invoiceNo;
+            int known = Math.min(recentCount.get(), RECENT_INVOICES);
+            if (known > 0 && random.nextDouble() < repeatRatio) {
+                invoiceNo = recent.get(random.nextInt(known));
+            } else {
+                long seq = sequence.incrementAndGet();
+                invoiceNo = "LT-" + runId + "-" + seq;
+                // Sequences start at 1: invoice n goes to slot n - 1, so slots [0, known) are always filled
+                recent.set((int) ((seq - 1) % RECENT_INVOICES), invoiceNo);
+                recentCount.incrementAndGet();
+            }
+
+            List<VfdReceiptRequest.VfdInvoiceDetail> details = new ArrayList<>(lineItems);
+            for (int i = 0; i < lineItems; i++) {
+                details.add(new VfdReceiptRequest.VfdInvoiceDetail(
+                        "Load test item " + i, 1 + i % 3, 1 + i % 5, BigDecimal.valueOf(1000 + i, 2)));
+            }
+            VfdReceiptRequest request = VfdReceiptRequest.builder()
+                    .idate("2025-01-15")
+                    .itime("10:15:30")
+                    .custinvoiceno(invoiceNo)
+                    .custidtype(6)
+                    .paytype(1)
+                    .username("loadtest")
+                    .branch("BR-" + random.nextInt(20))
+                    .devicenumber(random.nextDouble() < bulkShare ? BULK_DEVICE : "DEV-" + random.nextInt(200))
+                    .invoiceDetails(details)
+                    .build();
+            try {
+                return objectMapper.writeValueAsBytes(request);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package tz.co.itrust.vfd.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the load-test harness, given as {@code --name=value}
+ */
+public class LoadTestOptions {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.values.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    public String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    public int getInt(String name, int defaultValue) {
+        return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        return values.containsKey(name) ? Boolean.parseBoolean(values.get(name)) : defaultValue;
+    }
+
+    /**
+     * Options starting with the given prefix, with the prefix removed
+     */
+    public Map<String, String> passThrough(String prefix) {
+        Map<String, String> result = new HashMap<>();
+        values.forEach((k, v) -> {
+            if (k.startsWith(prefix)) {
+                result.put(k.substring(prefix.length()), v);
+            }
+        });
+        return result;
+    }
+
+    // Target request rate (requests per second, open loop)
+    public int rate() {
+        return getInt("rate", 100);
+    }
+
+    public int durationSeconds() {
+        return getInt("duration", 30);
+    }
+
+    public int warmupSeconds() {
+        return getInt("warmup", 10);
+    }
+
+    // Fraction of requests that replay an invoice number that was already sent
+    public double repeatRatio() {
+        return getDouble("repeat-ratio", 0.05);
+    }
+
+    // Fraction of requests sent by a single device replaying its offline backlog (devicenumber DEV-BULK)
+    public double bulkShare() {
+        return getDouble("bulk-share", 0.0);
+    }
+
+    public int lineItems() {
+        return getInt("line-items", 5);
+    }
+
+    // Latency distribution of the Power-VFD stub, see LatencyDistribution
+    public String stubLatency() {
+        return get("stub-latency", "lognormal:40:0.5");
+    }
+
+    public double stubErrorRate() {
+        return getDouble("stub-error-rate", 0.01);
+    }
+
+    public int stubCount() {
+        return getInt("stubs", 1);
+    }
+
+    // Stub slowed down for the measured run, as <index>:<extra delay ms>, e.g. 0:500
+    public String slowStub() {
+        return get("slow-stub", null);
+    }
+
+    // Stub stopped (connections refused) for the measured run
+    public int downStub() {
+        return getInt("down-stub", -1);
+    }
+
+    // Extra endpoints whose connections time out, as for a host that is down or unreachable
+    public int blackholeEndpoints() {
+        return getInt("blackhole-endpoints", 0);
+    }
+
+    public int appInstances() {
+        return getInt("instances", 1);
+    }
+
+    // JDBC URL of a local Postgres; an embedded Postgres is started when omitted
+    public String jdbcUrl() {
+        return get("jdbc-url", null);
+    }
+
+    public String jdbcUser() {
+        return get("jdbc-user", "postgres");
+    }
+
+    public String jdbcPassword() {
+        return get("jdbc-password", "postgres");
+    }
+
+    public int maxInFlight() {
+        return getInt("max-in-flight", 10_000);
+    }
+
+    // Invoices raced for by InvoiceClaimRaceCheck
+    public int claimRounds() {
+        return getInt("rounds", 200);
+    }
+}
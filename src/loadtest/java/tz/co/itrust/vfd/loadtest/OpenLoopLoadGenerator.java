@@ -0,0 +1,144 @@
+package tz.co.itrust.vfd.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Open-loop load generator: requests are issued on a fixed schedule regardless of how quickly
+ * earlier ones complete, and latency is measured from the intended send time so a stalled
+ * server is not hidden by the generator slowing down (no coordinated omission).
+ *
+ * Requests not sent because {@code maxInFlight} were outstanding count as failures (outcome
+ * {@code dropped}) and enter the latency histogram with the time from their intended send to the
+ * end of the run, a lower bound of what a real client would have waited; leaving them out would
+ * hide exactly the stalls the open loop is meant to expose.
+ */
+public class OpenLoopLoadGenerator {
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final List<URI> targets;
+    private final Supplier<byte[]> bodies;
+    private final int maxInFlight;
+
+    public OpenLoopLoadGenerator(List<URI> targets, Supplier<byte[]> bodies, int maxInFlight) {
+        this.targets = targets;
+        this.bodies = bodies;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Result run(int ratePerSecond, int durationSeconds) throws InterruptedException {
+        Recorder recorder = new Recorder(3);
+        Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        AtomicInteger inFlight = new AtomicInteger();
+        LongAdder completed = new LongAdder();
+        List<Long> droppedIntended = new ArrayList<>();
+
+        long intervalNanos = 1_000_000_000L / ratePerSecond;
+        long durationNanos = durationSeconds * 1_000_000_000L;
+        long start = System.nanoTime();
+        long sent = 0;
+
+        for (long i = 0; i * intervalNanos < durationNanos; i++) {
+            long intended = start + i * intervalNanos;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            if (inFlight.get() >= maxInFlight) {
+                droppedIntended.add(intended);
+                continue;
+            }
+
+            HttpRequest request = HttpRequest.newBuilder(targets.get((int) (i % targets.size())))
+                    .timeout(Duration.ofSeconds(120))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(bodies.get()))
+                    .build();
+
+            inFlight.incrementAndGet();
+            sent++;
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        recorder.recordValue(Math.max(1, (System.nanoTime() - intended) / 1000));
+                        String outcome = error != null ? error.getClass().getSimpleName() : String.valueOf(response.statusCode());
+                        outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+                        completed.increment();
+                        inFlight.decrementAndGet();
+                    });
+        }
+
+        long drainDeadline = System.nanoTime() + Duration.ofSeconds(130).toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        long end = System.nanoTime();
+        long elapsedNanos = end - start;
+        for (long intended : droppedIntended) {
+            recorder.recordValue(Math.max(1, (end - intended) / 1000));
+        }
+        if (!droppedIntended.isEmpty()) {
+            outcomes.computeIfAbsent("dropped", k -> new LongAdder()).add(droppedIntended.size());
+        }
+
+        Map<String, Long> outcomeCounts = new TreeMap<>();
+        outcomes.forEach((k, v) -> outcomeCounts.put(k, v.sum()));
+        return new Result(sent, droppedIntended.size(), completed.sum(), elapsedNanos, recorder.getIntervalHistogram(),
+                outcomeCounts);
+    }
+
+    public static class Result {
+        public final long sent;
+        public final long dropped;
+        public final long completed;
+        public final long elapsedNanos;
+        public final Histogram latencyMicros;
+        public final Map<String, Long> outcomes;
+
+        Result(long sent, long dropped, long completed, long elapsedNanos, Histogram latencyMicros,
+               Map<String, Long> outcomes) {
+            this.sent = sent;
+            this.dropped = dropped;
+            this.completed = completed;
+            this.elapsedNanos = elapsedNanos;
+            this.latencyMicros = latencyMicros;
+            this.outcomes = outcomes;
+        }
+
+        public double throughput() {
+            return completed / (elapsedNanos / 1e9);
+        }
+
+        public String summary() {
+            return String.format("sent=%d dropped=%d completed=%d throughput=%.1f req/s%n"
+                            + "latency ms: p50=%.2f p90=%.2f p99=%.2f p999=%.2f max=%.2f%n"
+                            + "responses: %s",
+                    sent, dropped, completed, throughput(),
+                    latencyMicros.getValueAtPercentile(50) / 1000.0,
+                    latencyMicros.getValueAtPercentile(90) / 1000.0,
+                    latencyMicros.getValueAtPercentile(99) / 1000.0,
+                    latencyMicros.getValueAtPercentile(99.9) / 1000.0,
+                    latencyMicros.getMaxValue() / 1000.0,
+                    outcomes);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package tz.co.itrust.vfd.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the Power-VFD receiver.
+ *
+ * Accepts the same {@code {"invoice": [...]}} payload as the real receiver, waits for a sampled
+ * service time, fails a configurable fraction of calls with HTTP 500 and otherwise answers with a
+ * success response per invoice (an array when a batch of several invoices is posted).
+ * Every successful fiscalisation is counted per {@code custinvoiceno} so double fiscalisation can be detected.
+ * HEAD requests (connection warm-up, health checks) are answered at once and not counted.
+ */
+public class PowerVfdStub implements AutoCloseable {
+
+    private static final String PATH = "/power-vfd/apis/web/auth/receiver";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LatencyDistribution latency;
+    private final double errorRate;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, AtomicInteger> fiscalised = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private int port;
+    private volatile long extraDelayMillis;
+    private volatile boolean stopped;
+
+    public PowerVfdStub(LatencyDistribution latency, double errorRate) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        this.server.createContext(PATH, this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    public PowerVfdStub start() {
+        server.start();
+        port = server.getAddress().getPort();
+        return this;
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + port + PATH;
+    }
+
+    /**
+     * Add a fixed delay on top of the sampled latency, to simulate a degraded node
+     */
+    public void setExtraDelayMillis(long extraDelayMillis) {
+        this.extraDelayMillis = extraDelayMillis;
+    }
+
+    /**
+     * Stop listening, so calls are refused as by a node that is down
+     */
+    public synchronized void stop() {
+        if (!stopped) {
+            stopped = true;
+            server.stop(0);
+        }
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public long calls() {
+        return calls.get();
+    }
+
+    public long errors() {
+        return errors.get();
+    }
+
+    public Map<String, AtomicInteger> fiscalised() {
+        return fiscalised;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            calls.incrementAndGet();
+            JsonNode body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = objectMapper.readTree(in);
+            }
+
+            sleep(latency.sampleMillis() + extraDelayMillis);
+
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                respond(exchange, 500, objectMapper.createObjectNode()
+                        .put("status", "error").put("message", "Simulated Power-VFD failure"));
+                return;
+            }
+
+            JsonNode invoices = body.path("invoice");
+            if (invoices.size() == 1) {
+                respond(exchange, 200, fiscalise(invoices.get(0)));
+            } else {
+                ArrayNode results = objectMapper.createArrayNode();
+                invoices.forEach(invoice -> results.add(fiscalise(invoice)));
+                respond(exchange, 200, results);
+            }
+        }
+    }
+
+    private ObjectNode fiscalise(JsonNode invoice) {
+        String custinvoiceno = invoice.path("custinvoiceno").asText();
+        fiscalised.computeIfAbsent(custinvoiceno, k -> new AtomicInteger()).incrementAndGet();
+
+        String code = Long.toHexString(ThreadLocalRandom.current().nextLong()).toUpperCase();
+        return objectMapper.createObjectNode()
+                .put("rctvnum", "https://verify.local/" + code)
+                .put("rctvcode", code)
+                .put("znumber", invoice.path("idate").asText().replace("-", ""))
+                .put("vfdinvoicenum", custinvoiceno)
+                .put("idate", invoice.path("idate").asText())
+                .put("itime", invoice.path("itime").asText())
+                .put("senttime", LocalDateTime.now().toString())
+                .put("message", "Success")
+                .put("status", "success")
+                .put("qrpath", "/qr/" + code + ".png")
+                .put("qrcode_uri", "https://verify.local/" + code)
+                .put("statusCodeText", "HTTP_OK")
+                .put("statusCode", 200);
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+        executor.shutdownNow();
+    }
+}
@@ -3,9 +3,11 @@ package tz.co.itrust.vfd;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @ComponentScan(basePackages = {"tz.co.itrust.vfd"})
+@EnableScheduling
 public class VfdApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,373 @@
+package tz.co.itrust.vfd.archive;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import tz.co.itrust.vfd.cache.BloomFilter;
+import tz.co.itrust.vfd.entity.VfdReceipt;
+import tz.co.itrust.vfd.entity.VfdReceiptDetail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable file of archived receipts (with their details), written once by {@link #write} and then only read.
+ *
+ * Receipts are sorted by rctvcode and stored as JSON in deflate-compressed blocks of about {@code blockBytes}.
+ * The footer, loaded into memory on {@link #open}, holds a sparse index (first rctvcode and file position of
+ * every block), a bloom filter of znumbers and invoice numbers per block, and one bloom filter of all three keys
+ * for the segment. A lookup for a key the segment does not hold is therefore almost always answered from memory;
+ * otherwise only the candidate blocks are read and inflated.
+ *
+ * Layout: blocks, footer, then the footer position and {@link #MAGIC} as the last 12 bytes.
+ */
+public class ArchiveSegment implements Closeable {
+
+    public static final String SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x56464441; // "VFDA"
+    private static final int VERSION = 1;
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+
+    private static final String RCTVCODE = "r:";
+    private static final String ZNUMBER = "z:";
+    private static final String CUSTINVOICENO = "c:";
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ObjectMapper objectMapper;
+    private final int recordCount;
+    private final long minId;
+    private final long maxId;
+    private final BloomFilter keys;
+    private final List<Block> blocks;
+
+    private ArchiveSegment(Path file, FileChannel channel, ObjectMapper objectMapper, int recordCount, long minId,
+                           long maxId, BloomFilter keys, List<Block> blocks) {
+        this.file = file;
+        this.channel = channel;
+        this.objectMapper = objectMapper;
+        this.recordCount = recordCount;
+        this.minId = minId;
+        this.maxId = maxId;
+        this.keys = keys;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Mapper for segment records, derived from the application's (Java time support etc.): details are written
+     * without their back-reference to the receipt, and fields added to the entities later are ignored on read
+     */
+    public static ObjectMapper recordMapper(ObjectMapper objectMapper) {
+        return objectMapper.copy()
+                .addMixIn(VfdReceiptDetail.class, ArchivedDetail.class)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * Write the receipts to a new segment file. The file is written under a temporary name, forced to disk and
+     * then moved into place, so a segment file is either complete or absent. The directory is forced after the
+     * move, so once this returns the segment survives a crash and the archived rows can be deleted.
+     */
+    public static void write(Path file, List<VfdReceipt> receipts, ObjectMapper objectMapper, int blockBytes,
+                             double falsePositiveProbability) throws IOException {
+        List<VfdReceipt> sorted = new ArrayList<>(receipts);
+        sorted.sort(Comparator.comparing(ArchiveSegment::sortKey).thenComparing(VfdReceipt::getId));
+
+        BloomFilter segmentKeys = BloomFilter.create(sorted.size() * 3L, falsePositiveProbability);
+        List<Block> blocks = new ArrayList<>();
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                int start = 0;
+                while (start < sorted.size()) {
+                    ByteArrayOutputStream raw = new ByteArrayOutputStream(blockBytes + 4096);
+                    DataOutputStream records = new DataOutputStream(raw);
+                    int end = start;
+                    while (end < sorted.size() && (end == start || raw.size() < blockBytes)) {
+                        byte[] json = objectMapper.writeValueAsBytes(sorted.get(end));
+                        records.writeInt(json.length);
+                        records.write(json);
+                        end++;
+                    }
+
+                    BloomFilter blockKeys = BloomFilter.create((end - start) * 2L, falsePositiveProbability);
+                    for (VfdReceipt receipt : sorted.subList(start, end)) {
+                        addKey(segmentKeys, RCTVCODE, receipt.getRctvcode());
+                        addKey(segmentKeys, ZNUMBER, receipt.getZnumber());
+                        addKey(segmentKeys, CUSTINVOICENO, receipt.getCustinvoiceno());
+                        addKey(blockKeys, ZNUMBER, receipt.getZnumber());
+                        addKey(blockKeys, CUSTINVOICENO, receipt.getCustinvoiceno());
+                    }
+
+                    byte[] compressed = deflate(raw.toByteArray());
+                    long offset = out.position();
+                    writeFully(out, ByteBuffer.wrap(compressed));
+                    blocks.add(new Block(offset, compressed.length, raw.size(), end - start,
+                            sortKey(sorted.get(start)), blockKeys));
+                    start = end;
+                }
+
+                ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+                DataOutputStream footer = new DataOutputStream(footerBytes);
+                footer.writeInt(MAGIC);
+                footer.writeInt(VERSION);
+                footer.writeInt(sorted.size());
+                footer.writeLong(sorted.stream().mapToLong(VfdReceipt::getId).min().orElse(0));
+                footer.writeLong(sorted.stream().mapToLong(VfdReceipt::getId).max().orElse(0));
+                segmentKeys.writeTo(footer);
+                footer.writeInt(blocks.size());
+                for (Block block : blocks) {
+                    footer.writeLong(block.offset);
+                    footer.writeInt(block.compressedLength);
+                    footer.writeInt(block.rawLength);
+                    footer.writeInt(block.records);
+                    footer.writeUTF(block.firstKey);
+                    block.keys.writeTo(footer);
+                }
+                long footerOffset = out.position();
+                footer.writeLong(footerOffset);
+                footer.writeInt(MAGIC);
+                writeFully(out, ByteBuffer.wrap(footerBytes.toByteArray()));
+                out.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(file.toAbsolutePath().getParent());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public static ArchiveSegment open(Path file, ObjectMapper objectMapper) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < TRAILER_BYTES) {
+                throw new IOException("Not an archive segment: " + file);
+            }
+            ByteBuffer trailer = read(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || footerOffset < 0 || footerOffset > size - TRAILER_BYTES) {
+                throw new IOException("Not an archive segment: " + file);
+            }
+
+            ByteBuffer footerBuffer = read(channel, footerOffset, (int) (size - TRAILER_BYTES - footerOffset));
+            DataInputStream footer = new DataInputStream(new ByteArrayInputStream(
+                    footerBuffer.array(), 0, footerBuffer.limit()));
+            if (footer.readInt() != MAGIC || footer.readInt() != VERSION) {
+                throw new IOException("Unsupported archive segment: " + file);
+            }
+            int recordCount = footer.readInt();
+            long minId = footer.readLong();
+            long maxId = footer.readLong();
+            BloomFilter keys = BloomFilter.readFrom(footer);
+            int blockCount = footer.readInt();
+            List<Block> blocks = new ArrayList<>(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                long offset = footer.readLong();
+                int compressedLength = footer.readInt();
+                int rawLength = footer.readInt();
+                int records = footer.readInt();
+                String firstKey = footer.readUTF();
+                blocks.add(new Block(offset, compressedLength, rawLength, records, firstKey, BloomFilter.readFrom(footer)));
+            }
+            return new ArchiveSegment(file, channel, objectMapper, recordCount, minId, maxId, keys, blocks);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public List<VfdReceipt> findByReceiptCode(String rctvcode) throws IOException {
+        List<VfdReceipt> found = new ArrayList<>();
+        if (!keys.mightContain(RCTVCODE + rctvcode)) {
+            return found;
+        }
+        // Blocks are in rctvcode order: start at the last block beginning before the code, since equal
+        // codes may continue into the following blocks
+        int low = 0;
+        int high = blocks.size() - 1;
+        int start = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blocks.get(mid).firstKey.compareTo(rctvcode) < 0) {
+                start = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = start; i < blocks.size() && blocks.get(i).firstKey.compareTo(rctvcode) <= 0; i++) {
+            found.addAll(readBlock(blocks.get(i), receipt -> rctvcode.equals(receipt.getRctvcode())));
+        }
+        return found;
+    }
+
+    public List<VfdReceipt> findByZNumber(String znumber) throws IOException {
+        return scan(ZNUMBER + znumber, receipt -> znumber.equals(receipt.getZnumber()));
+    }
+
+    public List<VfdReceipt> findByCustinvoiceno(String custinvoiceno) throws IOException {
+        return scan(CUSTINVOICENO + custinvoiceno, receipt -> custinvoiceno.equals(receipt.getCustinvoiceno()));
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public long getMinId() {
+        return minId;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<VfdReceipt> scan(String key, Predicate<VfdReceipt> matches) throws IOException {
+        List<VfdReceipt> found = new ArrayList<>();
+        if (!keys.mightContain(key)) {
+            return found;
+        }
+        for (Block block : blocks) {
+            if (block.keys.mightContain(key)) {
+                found.addAll(readBlock(block, matches));
+            }
+        }
+        return found;
+    }
+
+    private List<VfdReceipt> readBlock(Block block, Predicate<VfdReceipt> matches) throws IOException {
+        byte[] raw = inflate(read(channel, block.offset, block.compressedLength).array(), block.rawLength);
+        DataInputStream records = new DataInputStream(new ByteArrayInputStream(raw));
+        List<VfdReceipt> found = new ArrayList<>();
+        for (int i = 0; i < block.records; i++) {
+            byte[] json = new byte[records.readInt()];
+            records.readFully(json);
+            VfdReceipt receipt = objectMapper.readValue(json, VfdReceipt.class);
+            if (matches.test(receipt)) {
+                found.add(receipt);
+            }
+        }
+        return found;
+    }
+
+    private static String sortKey(VfdReceipt receipt) {
+        return receipt.getRctvcode() != null ? receipt.getRctvcode() : "";
+    }
+
+    private static void addKey(BloomFilter filter, String prefix, String value) {
+        if (value != null) {
+            filter.put(prefix + value);
+        }
+    }
+
+    private static byte[] deflate(byte[] raw) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (OutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(raw);
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawLength) {
+                throw new IOException("Corrupt archive block: expected " + rawLength + " bytes, got " + length);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Positional reads, so concurrent lookups can share the channel
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // The rename is only durable once the directory entry is on disk
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @JsonIgnoreProperties("receipt")
+    private abstract static class ArchivedDetail {
+    }
+
+    private static class Block {
+        private final long offset;
+        private final int compressedLength;
+        private final int rawLength;
+        private final int records;
+        private final String firstKey;
+        private final BloomFilter keys;
+
+        private Block(long offset, int compressedLength, int rawLength, int records, String firstKey, BloomFilter keys) {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+            this.records = records;
+            this.firstKey = firstKey;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package tz.co.itrust.vfd.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fixed-size bloom filter of strings: {@link #mightContain} is never false for a key that was added, and is
+ * true for other keys with about the false-positive probability the filter was sized for.
+ *
+ * Hashes are stable across JVMs (64-bit FNV-1a, double hashing), so a filter can be written to disk and read
+ * back. Bits are set with release and read with acquire semantics, so {@link #mightContain} may run
+ * concurrently with a put; callers that add concurrently must synchronize.
+ */
+public class BloomFilter {
+
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+    private long insertions;
+
+    private BloomFilter(long[] bits, int numHashes, long insertions) {
+        this.bits = bits;
+        this.numBits = (long) bits.length * Long.SIZE;
+        this.numHashes = numHashes;
+        this.insertions = insertions;
+    }
+
+    /**
+     * Filter sized for the given number of keys at the given false-positive probability
+     */
+    public static BloomFilter create(long expectedInsertions, double falsePositiveProbability) {
+        long n = Math.max(expectedInsertions, 1);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        int k = (int) Math.max(1, Math.round((double) m / n * Math.log(2)));
+        int words = (int) Math.max(1, (m + Long.SIZE - 1) / Long.SIZE);
+        return new BloomFilter(new long[words], k, 0);
+    }
+
+    public void put(String key) {
+        long hash = hash(key);
+        long h1 = hash;
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            BITS.getAndBitwiseOrRelease(bits, (int) (bit >>> 6), 1L << bit);
+        }
+        insertions++;
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        long h1 = hash;
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            if (((long) BITS.getAcquire(bits, (int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long insertions() {
+        return insertions;
+    }
+
+    public long sizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    /**
+     * False-positive probability implied by the bits set so far
+     */
+    public double expectedFalsePositiveProbability() {
+        long set = 0;
+        for (long word : bits) {
+            set += Long.bitCount(word);
+        }
+        return Math.pow((double) set / numBits, numHashes);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(bits.length);
+        out.writeInt(numHashes);
+        out.writeLong(insertions);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    public static BloomFilter readFrom(DataInput in) throws IOException {
+        int words = in.readInt();
+        int numHashes = in.readInt();
+        long insertions = in.readLong();
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits, numHashes, insertions);
+    }
+
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    // MurmurHash3 fmix64: spreads FNV's weak low bits over the whole word
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
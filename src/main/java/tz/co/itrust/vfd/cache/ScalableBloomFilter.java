@@ -0,0 +1,128 @@
+package tz.co.itrust.vfd.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thread-safe bloom filter that grows with the number of keys instead of being sized up front.
+ *
+ * Keys go into the newest {@link BloomFilter} stage; when it reaches its capacity a new stage with twice the
+ * capacity and half the false-positive probability is added, so the overall false-positive probability stays
+ * below the configured one however many keys are added (scalable bloom filter, Almeida et al.).
+ */
+public class ScalableBloomFilter {
+
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+
+    private final long initialCapacity;
+    private final double falsePositiveProbability;
+    // Replaced when a stage is added, so lookups and the statistics can read it without locking
+    private volatile List<Stage> stages;
+
+    public ScalableBloomFilter(long initialCapacity, double falsePositiveProbability) {
+        this.initialCapacity = initialCapacity;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.stages = List.of(newStage(0));
+    }
+
+    private ScalableBloomFilter(long initialCapacity, double falsePositiveProbability, List<Stage> stages) {
+        this.initialCapacity = initialCapacity;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.stages = stages;
+    }
+
+    public synchronized void put(String key) {
+        if (mightContain(key)) {
+            return;
+        }
+        Stage last = stages.get(stages.size() - 1);
+        if (last.filter.insertions() >= last.capacity) {
+            List<Stage> grown = new ArrayList<>(stages);
+            last = newStage(stages.size());
+            grown.add(last);
+            stages = List.copyOf(grown);
+        }
+        last.filter.put(key);
+    }
+
+    /**
+     * Lock-free: bits are only ever set, so a lookup racing a put at worst misses the key being added
+     */
+    public boolean mightContain(String key) {
+        for (Stage stage : stages) {
+            if (stage.filter.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of distinct keys added (keys that already tested positive are not counted again)
+     */
+    public long insertions() {
+        return stages.stream().mapToLong(stage -> stage.filter.insertions()).sum();
+    }
+
+    public long sizeInBytes() {
+        return stages.stream().mapToLong(stage -> stage.filter.sizeInBytes()).sum();
+    }
+
+    public int stageCount() {
+        return stages.size();
+    }
+
+    /**
+     * Current false-positive probability estimated from the bits set in every stage
+     */
+    public double expectedFalsePositiveProbability() {
+        double allNegative = 1;
+        for (Stage stage : stages) {
+            allNegative *= 1 - stage.filter.expectedFalsePositiveProbability();
+        }
+        return 1 - allNegative;
+    }
+
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeLong(initialCapacity);
+        out.writeDouble(falsePositiveProbability);
+        out.writeInt(stages.size());
+        for (Stage stage : stages) {
+            out.writeLong(stage.capacity);
+            stage.filter.writeTo(out);
+        }
+    }
+
+    public static ScalableBloomFilter readFrom(DataInput in) throws IOException {
+        long initialCapacity = in.readLong();
+        double falsePositiveProbability = in.readDouble();
+        int count = in.readInt();
+        List<Stage> stages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long capacity = in.readLong();
+            stages.add(new Stage(capacity, BloomFilter.readFrom(in)));
+        }
+        return new ScalableBloomFilter(initialCapacity, falsePositiveProbability, List.copyOf(stages));
+    }
+
+    private Stage newStage(int index) {
+        long capacity = initialCapacity * (long) Math.pow(GROWTH, index);
+        // Stage probabilities p(1-r), p(1-r)r, p(1-r)r^2... sum to at most p
+        double probability = falsePositiveProbability * (1 - TIGHTENING) * Math.pow(TIGHTENING, index);
+        return new Stage(capacity, BloomFilter.create(capacity, probability));
+    }
+
+    private static class Stage {
+        private final long capacity;
+        private final BloomFilter filter;
+
+        private Stage(long capacity, BloomFilter filter) {
+            this.capacity = capacity;
+            this.filter = filter;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package tz.co.itrust.vfd.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.web.filter.OncePerRequestFilter;
+import tz.co.itrust.vfd.cache.BoundedLruCache;
+import tz.co.itrust.vfd.services.TokenBucket;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Authenticates API clients by the {@code X-API-Key} header, formatted {@code <clientId>.<secret>}.
+ *
+ * Only BCrypt hashes of the secrets are configured. BCrypt is deliberately slow, so keys that verified once are
+ * remembered in a bounded cache under the SHA-256 of the presented key, and later requests cost one hash and one
+ * map lookup. Requests without the header pass through unauthenticated and are left to the authorization rules.
+ *
+ * A wrong secret for a known client id would otherwise cost a BCrypt check on every request, a cheap way to burn
+ * CPU. Rejected keys are remembered the same way, and each client may cause at most
+ * {@code failuresPerSecond} BCrypt failures (bursts of {@code failureBurst}); beyond that, keys that are not
+ * already cached are rejected without being checked until the client's budget refills. Keys that verified before
+ * keep working throughout.
+ */
+@Slf4j
+public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
+
+    public static final String API_KEY_HEADER = "X-API-Key";
+    public static final String ROLE_API_CLIENT = "ROLE_API_CLIENT";
+
+    private final Map<String, String> secretHashesByClient;
+    private final BoundedLruCache<String, String> verifiedKeys;
+    private final BoundedLruCache<String, Boolean> rejectedKeys;
+    private final Map<String, TokenBucket> failureBudgets = new HashMap<>();
+    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ApiKeyAuthenticationFilter(Map<String, String> secretHashesByClient, int cacheSize,
+                                      double failuresPerSecond, int failureBurst) {
+        this.secretHashesByClient = secretHashesByClient;
+        this.verifiedKeys = new BoundedLruCache<>(cacheSize);
+        this.rejectedKeys = new BoundedLruCache<>(cacheSize);
+        // One bucket per configured client, so the map is as bounded as the configuration
+        secretHashesByClient.keySet().forEach(client ->
+                failureBudgets.put(client, new TokenBucket(failuresPerSecond, failureBurst)));
+    }
+
+    /**
+     * Parse {@code clientA:<bcrypt hash>,clientB:<bcrypt hash>}
+     */
+    public static Map<String, String> parseClients(String clients) {
+        Map<String, String> parsed = new HashMap<>();
+        for (String entry : clients.split(",")) {
+            int separator = entry.indexOf(':');
+            if (separator > 0) {
+                parsed.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+            }
+        }
+        return parsed;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String apiKey = request.getHeader(API_KEY_HEADER);
+        if (apiKey == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        String clientId = authenticate(apiKey);
+        if (clientId == null) {
+            log.warn("Rejected invalid API key for {} {}", request.getMethod(), request.getRequestURI());
+            writeUnauthorized(response);
+            return;
+        }
+
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(new UsernamePasswordAuthenticationToken(
+                clientId, null, AuthorityUtils.createAuthorityList(ROLE_API_CLIENT)));
+        SecurityContextHolder.setContext(context);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    /**
+     * Client id of a valid key, or null
+     */
+    String authenticate(String apiKey) {
+        String digest = sha256(apiKey);
+        String cachedClient = verifiedKeys.get(digest);
+        if (cachedClient != null) {
+            return cachedClient;
+        }
+
+        int separator = apiKey.indexOf('.');
+        if (separator <= 0) {
+            return null;
+        }
+        String clientId = apiKey.substring(0, separator);
+        String secretHash = secretHashesByClient.get(clientId);
+        if (secretHash == null || rejectedKeys.get(digest) != null) {
+            return null;
+        }
+        TokenBucket failureBudget = failureBudgets.get(clientId);
+        if (failureBudget.nanosUntilAvailable() > 0) {
+            log.warn("Too many invalid API keys for client {}, not checking new keys for now", clientId);
+            return null;
+        }
+        if (!passwordEncoder.matches(apiKey.substring(separator + 1), secretHash)) {
+            failureBudget.tryAcquire();
+            rejectedKeys.put(digest, Boolean.TRUE);
+            return null;
+        }
+        verifiedKeys.put(digest, clientId);
+        return clientId;
+    }
+
+    private void writeUnauthorized(HttpServletResponse response) throws IOException {
+        Map<String, Object> body = new HashMap<>();
+        body.put("timestamp", LocalDateTime.now().toString());
+        body.put("statusCode", "401");
+        body.put("message", "Invalid API key");
+        response.setStatus(HttpStatus.UNAUTHORIZED.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), body);
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package tz.co.itrust.vfd.config;
+
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import tz.co.itrust.vfd.services.Deadline;
+import tz.co.itrust.vfd.services.DeadlineContext;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Request factory that shrinks the connect and read timeouts of each outbound call
+ * to the time left before the current request's deadline
+ */
+public class DeadlineAwareClientHttpRequestFactory extends SimpleClientHttpRequestFactory {
+
+    private int connectTimeout = -1;
+    private int readTimeout = -1;
+
+    @Override
+    public void setConnectTimeout(int connectTimeout) {
+        super.setConnectTimeout(connectTimeout);
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public void setReadTimeout(int readTimeout) {
+        super.setReadTimeout(readTimeout);
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+        super.prepareConnection(connection, httpMethod);
+
+        Deadline deadline = DeadlineContext.current();
+        if (deadline != null) {
+            connection.setConnectTimeout(deadline.timeoutMillis(connectTimeout));
+            connection.setReadTimeout(deadline.timeoutMillis(readTimeout));
+        }
+    }
+}
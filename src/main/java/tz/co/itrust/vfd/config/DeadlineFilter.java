@@ -0,0 +1,73 @@
+package tz.co.itrust.vfd.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import tz.co.itrust.vfd.services.Deadline;
+import tz.co.itrust.vfd.services.DeadlineContext;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reads the deadline set by the API Gateway and exposes it through {@link DeadlineContext}.
+ *
+ * The gateway may send either an absolute deadline ({@code X-Request-Deadline}, epoch milliseconds)
+ * or a relative budget ({@code X-Request-Timeout}, milliseconds). Without either header the
+ * configured default budget applies. The budget is never allowed to exceed the default.
+ */
+@Component
+@Slf4j
+public class DeadlineFilter extends OncePerRequestFilter {
+
+    public static final String DEADLINE_HEADER = "X-Request-Deadline";
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    @Value("${vfd.deadline.default-budget-ms:${vfd.timeout:60000}}")
+    private long defaultBudgetMs;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        DeadlineContext.set(resolveDeadline(request));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            DeadlineContext.clear();
+        }
+    }
+
+    private Deadline resolveDeadline(HttpServletRequest request) {
+        Deadline fallback = Deadline.after(defaultBudgetMs);
+
+        Long absolute = parseHeader(request, DEADLINE_HEADER);
+        if (absolute != null) {
+            Deadline deadline = Deadline.atEpochMillis(absolute);
+            return deadline.remainingMillis() < fallback.remainingMillis() ? deadline : fallback;
+        }
+
+        Long relative = parseHeader(request, TIMEOUT_HEADER);
+        if (relative != null && relative < defaultBudgetMs) {
+            return Deadline.after(relative);
+        }
+
+        return fallback;
+    }
+
+    private Long parseHeader(HttpServletRequest request, String name) {
+        String value = request.getHeader(name);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed {} header: {}", name, value);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package tz.co.itrust.vfd.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes the read replica out of rotation while it is further behind than the configured maximum lag
+ * or cannot be reached, and puts it back once it has caught up
+ */
+@Slf4j
+public class ReplicaLagMonitor {
+
+    // 0 when the replica has replayed everything it received, otherwise the age of the last replayed transaction
+    private static final String REPLICA_LAG_SQL =
+            "SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE COALESCE(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000, 0) END";
+
+    private final ReadWriteRoutingDataSource routingDataSource;
+    private final JdbcTemplate replicaJdbcTemplate;
+    private final long maxLagMs;
+    private final AtomicLong lagMs = new AtomicLong();
+
+    public ReplicaLagMonitor(ReadWriteRoutingDataSource routingDataSource, DataSource replica, MeterRegistry registry, long maxLagMs) {
+        this.routingDataSource = routingDataSource;
+        this.replicaJdbcTemplate = new JdbcTemplate(replica);
+        this.maxLagMs = maxLagMs;
+        Gauge.builder("vfd.datasource.replica.lag", lagMs, AtomicLong::get)
+                .description("Replication lag of the read replica")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${vfd.datasource.replica.lag-check-interval-ms:2000}")
+    public void checkReplicaLag() {
+        boolean available;
+        try {
+            Number lag = replicaJdbcTemplate.queryForObject(REPLICA_LAG_SQL, Number.class);
+            lagMs.set(lag != null ? lag.longValue() : 0);
+            available = lagMs.get() <= maxLagMs;
+        } catch (Exception e) {
+            log.warn("Replica lag check failed: {}", e.getMessage());
+            available = false;
+        }
+
+        if (available != routingDataSource.isReplicaAvailable()) {
+            log.warn("Read replica {} (lag {} ms, max {} ms)", available ? "back in rotation" : "taken out of rotation",
+                    lagMs.get(), maxLagMs);
+            routingDataSource.setReplicaAvailable(available);
+        }
+    }
+}
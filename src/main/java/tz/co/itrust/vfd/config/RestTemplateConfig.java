@@ -1,10 +1,12 @@
 package tz.co.itrust.vfd.config;
 
+import io.opentelemetry.api.OpenTelemetry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
+import tz.co.itrust.vfd.tracing.TracingClientHttpRequestInterceptor;
 
 @Configuration
 public class RestTemplateConfig {
@@ -12,11 +14,17 @@ public class RestTemplateConfig {
     @Value("${vfd.timeout:60000}")
     private int vfdTimeout;
 
+    @Value("${vfd.connect-timeout:3000}")
+    private int vfdConnectTimeout;
+
     @Bean
-    public RestTemplate restTemplate() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(vfdTimeout);
+    public RestTemplate restTemplate(ObjectProvider<OpenTelemetry> openTelemetry) {
+        DeadlineAwareClientHttpRequestFactory factory = new DeadlineAwareClientHttpRequestFactory();
+        factory.setConnectTimeout(vfdConnectTimeout);
         factory.setReadTimeout(vfdTimeout);
-        return new RestTemplate(factory);
+        RestTemplate restTemplate = new RestTemplate(factory);
+        // Only present with vfd.tracing.enabled=true
+        openTelemetry.ifAvailable(otel -> restTemplate.getInterceptors().add(new TracingClientHttpRequestInterceptor(otel)));
+        return restTemplate;
     }
 }
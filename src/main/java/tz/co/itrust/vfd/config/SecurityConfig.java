@@ -1,17 +1,40 @@
 package tz.co.itrust.vfd.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+import org.springframework.security.web.context.NullSecurityContextRepository;
 
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
+    // "none" leaves the receipt API open (authenticated by the API Gateway), "api-key" requires X-API-Key
+    @Value("${vfd.security.api-auth:none}")
+    private String apiAuth;
+
+    @Value("${vfd.security.api-keys:}")
+    private String apiKeys;
+
+    @Value("${vfd.security.api-key-cache-size:1000}")
+    private int apiKeyCacheSize;
+
+    // BCrypt checks of wrong secrets allowed per client, 0 for no limit
+    @Value("${vfd.security.api-key-failures-per-second:1}")
+    private double apiKeyFailuresPerSecond;
+
+    @Value("${vfd.security.api-key-failure-burst:10}")
+    private int apiKeyFailureBurst;
+
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+        boolean apiKeyAuth = "api-key".equalsIgnoreCase(apiAuth);
+
         http
                 .csrf().disable()
                 .authorizeRequests()
@@ -21,15 +44,25 @@ public class SecurityConfig {
                     .antMatchers("/status").permitAll()
                     .antMatchers("/info").permitAll()
                     .antMatchers("/test").permitAll()
-                    .antMatchers("/receipt").permitAll()
+                    .antMatchers("/receipt", "/receipt/**", "/receipts/**").access(apiKeyAuth ? "hasRole('API_CLIENT')" : "permitAll")
                     .anyRequest().authenticated()
                 .and()
                 .httpBasic();
 
+        // Stateless API: no HTTP session is created and the SecurityContext is never stored between requests
         http.sessionManagement()
-                .maximumSessions(1)
-                .maxSessionsPreventsLogin(true);
+                .sessionCreationPolicy(SessionCreationPolicy.STATELESS);
+        http.securityContext()
+                .securityContextRepository(new NullSecurityContextRepository());
+        http.requestCache().disable();
+
+        if (apiKeyAuth) {
+            // Not a bean, so it is only part of this chain and not also registered as a servlet filter
+            http.addFilterBefore(new ApiKeyAuthenticationFilter(ApiKeyAuthenticationFilter.parseClients(apiKeys),
+                            apiKeyCacheSize, apiKeyFailuresPerSecond, apiKeyFailureBurst),
+                    BasicAuthenticationFilter.class);
+        }
 
         return http.build();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,61 @@
+package tz.co.itrust.vfd.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.client.RestTemplate;
+import tz.co.itrust.vfd.controllers.VfdController;
+import tz.co.itrust.vfd.metrics.ReceiptMetrics;
+import tz.co.itrust.vfd.services.VfdService;
+import tz.co.itrust.vfd.validation.ReceiptRequestValidator;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+/**
+ * Startup tuning.
+ *
+ * With {@code spring.main.lazy-initialization=true} (profile {@code fast-start}) only the beans on the
+ * /receipt hot path are created eagerly, so the first request does not pay for building them.
+ * With {@code vfd.startup.training-run=true} the application exits as soon as it is ready, which is
+ * used to record the AppCDS archive (see the {@code cds} Maven profile).
+ */
+@Configuration
+@Slf4j
+public class StartupConfig {
+
+    @Bean
+    public static LazyInitializationExcludeFilter hotPathBeansExcludeFilter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                DataSource.class,
+                EntityManagerFactory.class,
+                RestTemplate.class,
+                VfdController.class,
+                VfdService.class,
+                ReceiptRequestValidator.class,
+                ReceiptMetrics.class);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "vfd.startup.training-run", havingValue = "true")
+    public ApplicationListener<ApplicationReadyEvent> trainingRunExit() {
+        return new TrainingRunExit();
+    }
+
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    private static class TrainingRunExit implements ApplicationListener<ApplicationReadyEvent> {
+
+        @Override
+        public void onApplicationEvent(ApplicationReadyEvent event) {
+            log.info("Training run finished, exiting");
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+}
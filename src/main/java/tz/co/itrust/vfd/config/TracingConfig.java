@@ -0,0 +1,128 @@
+package tz.co.itrust.vfd.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.api.baggage.propagation.W3CBaggagePropagator;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.exporter.otlp.http.trace.OtlpHttpSpanExporter;
+import io.opentelemetry.instrumentation.jdbc.datasource.JdbcTelemetry;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import tz.co.itrust.vfd.tracing.JsonLinesSpanExporter;
+import tz.co.itrust.vfd.tracing.TailSamplingSpanProcessor;
+import tz.co.itrust.vfd.tracing.TracingFilter;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * OpenTelemetry tracing, enabled with {@code vfd.tracing.enabled=true}.
+ *
+ * Every request is recorded; {@link TailSamplingSpanProcessor} then keeps failed and slow traces plus a sample
+ * of the rest, and exports them to a JSON-lines file or an OTLP/HTTP collector. Spans cover the server request,
+ * each receipt pipeline stage (see ReceiptMetrics), every JDBC statement and the Power-VFD call.
+ */
+@Configuration
+@ConditionalOnProperty(name = "vfd.tracing.enabled", havingValue = "true")
+@Slf4j
+public class TracingConfig {
+
+    @Value("${vfd.tracing.exporter:file}")
+    private String exporter;
+
+    @Value("${vfd.tracing.file:${java.io.tmpdir}/vfd-traces.jsonl}")
+    private String file;
+
+    @Value("${vfd.tracing.otlp-endpoint:http://localhost:4318/v1/traces}")
+    private String otlpEndpoint;
+
+    @Value("${vfd.tracing.slow-threshold-ms:2000}")
+    private long slowThresholdMs;
+
+    @Value("${vfd.tracing.sample-ratio:0.01}")
+    private double sampleRatio;
+
+    @Value("${vfd.tracing.max-pending-traces:10000}")
+    private int maxPendingTraces;
+
+    @Value("${vfd.tracing.max-spans-per-trace:1000}")
+    private int maxSpansPerTrace;
+
+    @Bean(destroyMethod = "close")
+    public OpenTelemetrySdk openTelemetry(MeterRegistry registry) throws IOException {
+        SpanExporter spanExporter = "otlp".equalsIgnoreCase(exporter)
+                ? OtlpHttpSpanExporter.builder().setEndpoint(otlpEndpoint).build()
+                : new JsonLinesSpanExporter(Paths.get(file));
+        log.info("Tracing enabled: exporter={}, slow threshold {} ms, sample ratio {}", exporter, slowThresholdMs, sampleRatio);
+
+        TailSamplingSpanProcessor tailSampling = new TailSamplingSpanProcessor(spanExporter, slowThresholdMs, sampleRatio,
+                maxPendingTraces, maxSpansPerTrace);
+        FunctionCounter.builder("vfd.tracing.dropped-spans", tailSampling, TailSamplingSpanProcessor::droppedSpans)
+                .description("Spans left out of traces with more than vfd.tracing.max-spans-per-trace spans")
+                .register(registry);
+        FunctionCounter.builder("vfd.tracing.dropped-traces", tailSampling, TailSamplingSpanProcessor::evictedTraces)
+                .tag("reason", "max-pending-traces")
+                .description("Traces lost before export")
+                .register(registry);
+        FunctionCounter.builder("vfd.tracing.dropped-traces", tailSampling, TailSamplingSpanProcessor::rejectedExports)
+                .tag("reason", "export-queue-full")
+                .description("Traces lost before export")
+                .register(registry);
+
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .setResource(Resource.getDefault().merge(Resource.create(
+                        Attributes.of(AttributeKey.stringKey("service.name"), "itrust-vfd"))))
+                // Record everything; the keep/drop decision is made when the trace is complete
+                .setSampler(Sampler.alwaysOn())
+                .addSpanProcessor(tailSampling)
+                .build();
+
+        return OpenTelemetrySdk.builder()
+                .setTracerProvider(tracerProvider)
+                .setPropagators(ContextPropagators.create(TextMapPropagator.composite(
+                        W3CTraceContextPropagator.getInstance(), W3CBaggagePropagator.getInstance())))
+                .build();
+    }
+
+    @Bean
+    public FilterRegistrationBean<TracingFilter> tracingFilter(OpenTelemetry openTelemetry) {
+        FilterRegistrationBean<TracingFilter> registration = new FilterRegistrationBean<>(new TracingFilter(openTelemetry));
+        // Ahead of Spring Security and the deadline filter, so their time is inside the server span
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registration;
+    }
+
+    /**
+     * Wraps the application DataSource so every JDBC statement (and connection checkout) gets a span
+     */
+    @Bean
+    public static BeanPostProcessor tracingDataSourcePostProcessor(ObjectProvider<OpenTelemetry> openTelemetry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && "dataSource".equals(beanName)) {
+                    return JdbcTelemetry.create(openTelemetry.getObject()).wrap((DataSource) bean);
+                }
+                return bean;
+            }
+        };
+    }
+}
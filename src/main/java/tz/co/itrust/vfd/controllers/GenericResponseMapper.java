@@ -0,0 +1,61 @@
+package tz.co.itrust.vfd.controllers;
+
+import org.springframework.stereotype.Component;
+import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps VFD responses to the GenericRestResponse bodies the API Gateway expects; stateless
+ */
+@Component
+public class GenericResponseMapper {
+
+    /**
+     * The body {@code POST /receipt} answers with for a processed receipt
+     */
+    public Map<String, Object> buildReceiptResponse(VfdReceiptResponse response) {
+        Map<String, Object> genericResponse = buildGenericResponse(buildResponseData(response));
+        if (!"success".equals(response.getStatus())) {
+            genericResponse.put("statusCode", "612");
+            genericResponse.put("message", response.getMessage() != null ? response.getMessage() : "VFD Error");
+        }
+        return genericResponse;
+    }
+
+    /**
+     * Map a VFD response to the data section of the GenericRestResponse
+     */
+    public Map<String, Object> buildResponseData(VfdReceiptResponse response) {
+        Map<String, Object> responseData = new HashMap<>();
+        responseData.put("rctvnum", response.getRctvnum());
+        responseData.put("rctvcode", response.getRctvcode());
+        responseData.put("znumber", response.getZnumber());
+        responseData.put("vfdinvoicenum", response.getVfdinvoicenum());
+        responseData.put("idate", response.getIdate());
+        responseData.put("itime", response.getItime());
+        responseData.put("senttime", response.getSenttime());
+        responseData.put("message", response.getMessage());
+        responseData.put("status", response.getStatus());
+        responseData.put("qrpath", response.getQrpath());
+        responseData.put("qrcode_uri", response.getQrcode_uri());
+        responseData.put("statusCodeText", response.getStatusCodeText());
+        responseData.put("statusCode", response.getStatusCode());
+        responseData.put("errorMessage", response.getErrorMessage());
+        return responseData;
+    }
+
+    /**
+     * Wrap response data in the exact GenericRestResponse format that API Gateway expects
+     */
+    public Map<String, Object> buildGenericResponse(Map<String, Object> responseData) {
+        Map<String, Object> genericResponse = new HashMap<>();
+        genericResponse.put("timestamp", LocalDateTime.now().toString());
+        genericResponse.put("statusCode", "600"); // Use "600" like NBC for success
+        genericResponse.put("message", "Success");
+        genericResponse.put("data", responseData);
+        return genericResponse;
+    }
+}
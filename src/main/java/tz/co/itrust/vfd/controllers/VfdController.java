@@ -2,16 +2,28 @@ package tz.co.itrust.vfd.controllers;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import tz.co.itrust.vfd.dto.VfdReceiptRequest;
 import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+import tz.co.itrust.vfd.services.QrCodeService;
+import tz.co.itrust.vfd.services.ReceiptLookupService;
+import tz.co.itrust.vfd.services.ReceiptStreamService;
 import tz.co.itrust.vfd.services.VfdService;
+import tz.co.itrust.vfd.validation.ReceiptRequestValidator;
 
-import javax.validation.Valid;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/")
@@ -20,39 +32,30 @@ import java.util.Map;
 public class VfdController {
 
     private final VfdService vfdService;
+    private final ReceiptRequestValidator receiptRequestValidator;
+    private final QrCodeService qrCodeService;
+    private final ReceiptLookupService receiptLookupService;
+    private final ReceiptStreamService receiptStreamService;
+    private final GenericResponseMapper responseMapper;
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    // Spring 5.3 CacheControl has no immutable() directive, so it is appended to the header value
+    private static final String IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().getHeaderValue() + ", immutable";
 
     @PostMapping("/receipt")
     public ResponseEntity<Map<String, Object>> processReceipt(
-            @Valid @RequestBody VfdReceiptRequest request) {
+            @RequestBody VfdReceiptRequest request) {
 
         log.info("Received VFD receipt request: {}", request.getCustinvoiceno());
+        receiptRequestValidator.validate(request);
         
         try {
             VfdReceiptResponse response = vfdService.processReceipt(request);
             
             // Create GenericRestResponse format that API Gateway expects
-            Map<String, Object> responseData = new HashMap<>();
-            responseData.put("rctvnum", response.getRctvnum());
-            responseData.put("rctvcode", response.getRctvcode());
-            responseData.put("znumber", response.getZnumber());
-            responseData.put("vfdinvoicenum", response.getVfdinvoicenum());
-            responseData.put("idate", response.getIdate());
-            responseData.put("itime", response.getItime());
-            responseData.put("senttime", response.getSenttime());
-            responseData.put("message", response.getMessage());
-            responseData.put("status", response.getStatus());
-            responseData.put("qrpath", response.getQrpath());
-            responseData.put("qrcode_uri", response.getQrcode_uri());
-            responseData.put("statusCodeText", response.getStatusCodeText());
-            responseData.put("statusCode", response.getStatusCode());
-            responseData.put("errorMessage", response.getErrorMessage());
-            
-            // Create the exact GenericRestResponse format that API Gateway expects
-            Map<String, Object> genericResponse = new HashMap<>();
-            genericResponse.put("timestamp", LocalDateTime.now().toString());
-            genericResponse.put("statusCode", "600"); // Use "600" like NBC for success
-            genericResponse.put("message", "Success");
-            genericResponse.put("data", responseData);
+            Map<String, Object> responseData = responseMapper.buildResponseData(response);
+            Map<String, Object> genericResponse = responseMapper.buildGenericResponse(responseData);
             
             // Return appropriate HTTP status based on the response
             if ("success".equals(response.getStatus())) {
@@ -120,6 +123,94 @@ public class VfdController {
         }
     }
 
+    /**
+     * Bulk upload of receipts as newline-delimited JSON, one {@code /receipt} request body per line. The response
+     * streams one line per record, in completion order, each with the record number, custinvoiceno and the
+     * {@code /receipt} response body (or a 400 for an invalid record), followed by a summary line.
+     */
+    @PostMapping("/receipts/stream")
+    public void streamReceipts(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.info("Receiving receipt stream");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding("UTF-8");
+        receiptStreamService.process(request.getInputStream(), response.getOutputStream(), responseMapper::buildReceiptResponse);
+    }
+
+    /**
+     * Receipt status by exactly one of custinvoiceno, rctvcode or znumber, for POS terminals polling for a result.
+     * Returns the compact response (without the QR data URI). Successful receipts are final: they carry an ETag and
+     * Last-Modified, are cacheable as immutable, and a matching If-None-Match / If-Modified-Since gets 304.
+     * A znumber matches every receipt of that Z report; the latest one is returned, never as final.
+     */
+    @GetMapping("/receipt")
+    public ResponseEntity<Map<String, Object>> getReceipt(
+            @RequestParam(required = false) String custinvoiceno,
+            @RequestParam(required = false) String rctvcode,
+            @RequestParam(required = false) String znumber) {
+
+        int keys = (custinvoiceno != null ? 1 : 0) + (rctvcode != null ? 1 : 0) + (znumber != null ? 1 : 0);
+        if (keys != 1) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("timestamp", LocalDateTime.now().toString());
+            response.put("statusCode", "400");
+            response.put("message", "Exactly one of custinvoiceno, rctvcode or znumber is required");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        Optional<ReceiptLookupService.ReceiptLookup> lookup = custinvoiceno != null
+                ? receiptLookupService.findByCustinvoiceno(custinvoiceno)
+                : rctvcode != null ? receiptLookupService.findByReceiptCode(rctvcode) : receiptLookupService.findByZNumber(znumber);
+        if (lookup.isEmpty()) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("timestamp", LocalDateTime.now().toString());
+            response.put("statusCode", "404");
+            response.put("message", "Receipt not found");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+
+        Map<String, Object> responseData = responseMapper.buildResponseData(lookup.get().getResponse());
+        responseData.remove("qrcode_uri");
+        Map<String, Object> genericResponse = responseMapper.buildGenericResponse(responseData);
+        if (!lookup.get().isFinal()) {
+            if (!"success".equals(lookup.get().getResponse().getStatus())) {
+                genericResponse.put("statusCode", "612");
+                genericResponse.put("message", lookup.get().getResponse().getMessage());
+            }
+            return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(genericResponse);
+        }
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .eTag(lookup.get().getEtag())
+                .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE);
+        if (lookup.get().getLastModified() > 0) {
+            builder.lastModified(lookup.get().getLastModified());
+        }
+        return builder.body(genericResponse);
+    }
+
+    /**
+     * QR code image for a fiscalised receipt. The image is content addressed, so it is served with a strong
+     * ETag and cached as immutable; a matching If-None-Match gets 304 Not Modified.
+     */
+    @GetMapping("/receipt/{rctvcode}/qr")
+    public ResponseEntity<?> getReceiptQrCode(@PathVariable String rctvcode) {
+        Optional<QrCodeService.QrImage> image = qrCodeService.getQrCode(rctvcode);
+        if (image.isEmpty()) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("timestamp", LocalDateTime.now().toString());
+            response.put("statusCode", "404");
+            response.put("message", "Receipt not found: " + rctvcode);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+
+        return ResponseEntity.ok()
+                .eTag("\"" + image.get().getKey() + "\"")
+                .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE)
+                .contentType(MediaType.parseMediaType(image.get().getContentType()))
+                .body(image.get().getBytes());
+    }
+
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> health() {
         Map<String, Object> response = new HashMap<>();
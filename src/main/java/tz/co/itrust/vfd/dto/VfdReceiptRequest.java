@@ -5,6 +5,7 @@ import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 
+import javax.validation.Valid;
 import javax.validation.constraints.*;
 import java.math.BigDecimal;
 import java.util.List;
@@ -52,6 +53,7 @@ public class VfdReceiptRequest {
 
     @NotNull(message = "Invoice details are required")
     @Size(min = 1, message = "At least one invoice detail is required")
+    @Valid
     private List<VfdInvoiceDetail> invoiceDetails;
 
     // Optional fcode and fcodetoken - if not provided, will use configured values from properties
@@ -0,0 +1,11 @@
+package tz.co.itrust.vfd.exceptions;
+
+/**
+ * Thrown when a request's deadline has passed and the remaining work is abandoned
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,28 @@
+package tz.co.itrust.vfd.exceptions;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Thrown when a receipt request violates one or more field constraints.
+ * Messages are kept sorted so both validation modes report violations identically.
+ */
+public class RequestValidationException extends IllegalArgumentException {
+
+    private final SortedSet<String> errors;
+
+    public RequestValidationException(Collection<String> errors) {
+        this(new TreeSet<>(errors));
+    }
+
+    private RequestValidationException(SortedSet<String> errors) {
+        super(String.join("; ", errors));
+        this.errors = Collections.unmodifiableSortedSet(errors);
+    }
+
+    public SortedSet<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,37 @@
+package tz.co.itrust.vfd.metrics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the number of distinct values of a metric tag bounded.
+ * The first {@code maxValues} distinct values are passed through, every later value is
+ * reported as {@value #OTHER} so a misbehaving client cannot blow up the time-series count.
+ */
+public class BoundedTagValues {
+
+    public static final String NONE = "none";
+    public static final String OTHER = "other";
+
+    private final int maxValues;
+    private final Set<String> admitted = ConcurrentHashMap.newKeySet();
+
+    public BoundedTagValues(int maxValues) {
+        this.maxValues = maxValues;
+    }
+
+    public String tagValue(String value) {
+        if (value == null || value.isBlank()) {
+            return NONE;
+        }
+        if (admitted.contains(value)) {
+            return value;
+        }
+        if (admitted.size() < maxValues) {
+            // Concurrent admissions may overshoot the limit by a few values, which is acceptable
+            admitted.add(value);
+            return value;
+        }
+        return OTHER;
+    }
+}
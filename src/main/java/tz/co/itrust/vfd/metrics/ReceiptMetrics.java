@@ -0,0 +1,94 @@
+package tz.co.itrust.vfd.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer instrumentation for the receipt pipeline.
+ *
+ * Publishes {@code vfd.receipt.stage} timers (with percentile histograms) per pipeline stage and
+ * {@code vfd.receipt.outcome} counters tagged by outcome, branch and device number.
+ * With tracing enabled each timed stage is also a {@code vfd.<stage>} span.
+ */
+@Component
+public class ReceiptMetrics {
+
+    public static final String STAGE_DUPLICATE_LOOKUP = "duplicate_lookup";
+    public static final String STAGE_CLAIM = "claim";
+    public static final String STAGE_VALIDATE = "validate";
+    public static final String STAGE_TRANSFORM = "transform";
+    public static final String STAGE_UPSTREAM = "upstream";
+    public static final String STAGE_STORE = "store";
+
+    public static final String OUTCOME_CACHED = "cached";
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_UPSTREAM_ERROR = "upstream-error";
+    public static final String OUTCOME_UNREACHABLE = "unreachable";
+    public static final String OUTCOME_DEADLINE_EXCEEDED = "deadline-exceeded";
+    public static final String OUTCOME_ERROR = "error";
+
+    private final MeterRegistry registry;
+    private final BoundedTagValues branches;
+    private final BoundedTagValues devices;
+    private final Map<String, Timer> stageTimers = new ConcurrentHashMap<>();
+    private final Tracer tracer;
+
+    public ReceiptMetrics(MeterRegistry registry, @Value("${vfd.metrics.max-tag-values:100}") int maxTagValues,
+                          ObjectProvider<OpenTelemetry> openTelemetry) {
+        this.registry = registry;
+        this.tracer = openTelemetry.getIfAvailable(OpenTelemetry::noop).getTracer(ReceiptMetrics.class.getPackageName());
+        this.branches = new BoundedTagValues(maxTagValues);
+        this.devices = new BoundedTagValues(maxTagValues);
+    }
+
+    /**
+     * Time one stage of the receipt pipeline
+     */
+    public <T> T timeStage(String stage, Supplier<T> work) {
+        Span span = tracer.spanBuilder("vfd." + stage).startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            return stageTimer(stage).record(work);
+        } catch (RuntimeException e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR, e.getMessage());
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    public void recordOutcome(String outcome, VfdReceiptRequest request) {
+        Counter.builder("vfd.receipt.outcome")
+                .description("Processed receipts by outcome")
+                .tag("outcome", outcome)
+                .tag("branch", branches.tagValue(request.getBranch()))
+                .tag("devicenumber", devices.tagValue(request.getDevicenumber()))
+                .register(registry)
+                .increment();
+    }
+
+    private Timer stageTimer(String stage) {
+        return stageTimers.computeIfAbsent(stage, s -> Timer.builder("vfd.receipt.stage")
+                .description("Time spent in each stage of receipt processing")
+                .tag("stage", s)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(2))
+                .register(registry));
+    }
+}
@@ -1,9 +1,15 @@
 package tz.co.itrust.vfd.repository;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import tz.co.itrust.vfd.entity.VfdReceipt;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -38,4 +44,19 @@ public interface VfdReceiptRepository extends JpaRepository<VfdReceipt, Long> {
     Optional<VfdReceipt> findByCustinvoicenoAndVfdStatus(String custinvoiceno, String vfdStatus);
     
     Optional<VfdReceipt> findByCustinvoicenoAndVfdStatusAndRctvcodeIsNotNull(String custinvoiceno, String vfdStatus);
+
+    // Status lookup: an invoice can have several failed attempts before it succeeds
+    Optional<VfdReceipt> findFirstByCustinvoicenoOrderByIdDesc(String custinvoiceno);
+
+    // A Z number is shared by every receipt of the same Z report, so these return the latest receipt of it
+    Optional<VfdReceipt> findFirstByZnumberOrderByIdDesc(String znumber);
+
+    Optional<VfdReceipt> findFirstByRctvcodeOrZnumberOrderByIdDesc(String rctvcode, String znumber);
+
+    // Archiving: oldest receipts first, loaded with their details in one query
+    @Query("select r.id from VfdReceipt r where r.createdAt < :cutoff order by r.id")
+    List<Long> findIdsCreatedBefore(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    @EntityGraph(attributePaths = "receiptDetails")
+    List<VfdReceipt> findByIdIn(Collection<Long> ids);
 }
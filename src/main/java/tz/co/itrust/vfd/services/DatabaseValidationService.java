@@ -1,38 +1,47 @@
 package tz.co.itrust.vfd.services;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
-import tz.co.itrust.vfd.repository.VfdReceiptRepository;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.Metamodel;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Database Validation Service
- * Validates database schema on startup to ensure it matches JPA entities
+ * Validates database schema on startup to ensure it matches JPA entities.
+ * Only catalog metadata is queried, so the cost does not grow with the number of stored receipts.
  */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class DatabaseValidationService {
 
     @PersistenceContext
     private EntityManager entityManager;
 
-    private final VfdReceiptRepository receiptRepository;
-
     /**
      * Validate database schema on application startup
      */
     @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
     public void validateDatabaseSchema() {
         log.info("Starting database schema validation...");
+        long start = System.nanoTime();
         
         try {
             // Validate entity mappings
@@ -44,7 +53,8 @@ public class DatabaseValidationService {
             // Test basic operations
             testBasicOperations();
             
-            log.info("Database schema validation completed successfully!");
+            log.info("Database schema validation completed successfully in {} ms (JVM uptime {} ms)",
+                    (System.nanoTime() - start) / 1_000_000, ManagementFactory.getRuntimeMXBean().getUptime());
             
         } catch (Exception e) {
             log.error("Database schema validation failed: {}", e.getMessage(), e);
@@ -80,19 +90,35 @@ public class DatabaseValidationService {
     }
 
     /**
-     * Validate table structure by checking if required tables exist
+     * Validate table structure by checking that every mapped table and column exists in the catalog
      */
     private void validateTableStructure() {
         log.info("Validating table structure...");
         
         try {
-            // Check if VFD tables exist by trying to access them
-            long receiptCount = receiptRepository.count();
-            log.info("VFD receipts table is accessible, current count: {}", receiptCount);
-            
-            // Try to access the entity manager to check table structure
-            entityManager.createNativeQuery("SELECT COUNT(*) FROM vfd_receipts").getSingleResult();
-            entityManager.createNativeQuery("SELECT COUNT(*) FROM vfd_receipt_details").getSingleResult();
+            SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class);
+
+            for (EntityPersister persister : sessionFactory.getMetamodel().entityPersisters().values()) {
+                if (!(persister instanceof AbstractEntityPersister)) {
+                    continue;
+                }
+                AbstractEntityPersister entityPersister = (AbstractEntityPersister) persister;
+                String table = entityPersister.getTableName();
+                Set<String> expected = mappedColumns(entityPersister);
+                Set<String> actual = catalogColumns(table);
+
+                if (actual.isEmpty()) {
+                    throw new IllegalStateException("Table " + table + " does not exist");
+                }
+                Set<String> missing = expected.stream()
+                        .filter(column -> !actual.contains(column))
+                        .collect(Collectors.toCollection(LinkedHashSet::new));
+                if (!missing.isEmpty()) {
+                    throw new IllegalStateException("Table " + table + " is missing columns " + missing);
+                }
+                log.info("Table {} matches entity {} ({} columns)", table, entityPersister.getEntityName(), expected.size());
+            }
             
             log.info("All required VFD tables are accessible");
             
@@ -109,10 +135,6 @@ public class DatabaseValidationService {
         log.info("Testing basic database operations...");
         
         try {
-            // Test repository operations
-            long count = receiptRepository.count();
-            log.info("Repository count operation successful: {}", count);
-            
             // Test entity manager operations
             Object result = entityManager.createNativeQuery("SELECT 1").getSingleResult();
             log.info("Native query test successful: {}", result);
@@ -124,4 +146,28 @@ public class DatabaseValidationService {
             throw new RuntimeException("Basic database operations test failed", e);
         }
     }
+
+    private Set<String> mappedColumns(AbstractEntityPersister persister) {
+        Set<String> columns = new LinkedHashSet<>();
+        Arrays.stream(persister.getIdentifierColumnNames()).forEach(column -> columns.add(normalize(column)));
+        for (String property : persister.getPropertyNames()) {
+            // Collections (e.g. receiptDetails) map to no column on the owning table
+            Arrays.stream(persister.getPropertyColumnNames(property)).forEach(column -> columns.add(normalize(column)));
+        }
+        return columns;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> catalogColumns(String table) {
+        List<String> columns = entityManager.createNativeQuery(
+                        "SELECT column_name FROM information_schema.columns " +
+                        "WHERE table_schema = current_schema() AND table_name = :table")
+                .setParameter("table", normalize(table))
+                .getResultList();
+        return columns.stream().map(this::normalize).collect(Collectors.toSet());
+    }
+
+    private String normalize(String identifier) {
+        return identifier.replace("\"", "").toLowerCase(Locale.ROOT);
+    }
 }
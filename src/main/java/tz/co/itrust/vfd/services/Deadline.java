@@ -0,0 +1,69 @@
+package tz.co.itrust.vfd.services;
+
+import tz.co.itrust.vfd.exceptions.DeadlineExceededException;
+
+/**
+ * Point in time by which the caller (normally the API Gateway) stops waiting for a response.
+ * Measured on the monotonic clock so wall-clock adjustments do not shrink or stretch the budget.
+ */
+public final class Deadline {
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * Deadline that expires the given number of milliseconds from now
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + Math.max(0, millis) * 1_000_000L);
+    }
+
+    /**
+     * Deadline that expires at the given wall-clock instant (epoch milliseconds)
+     */
+    public static Deadline atEpochMillis(long epochMillis) {
+        return after(epochMillis - System.currentTimeMillis());
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000L);
+    }
+
+    public boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Remaining budget as a whole number of seconds, rounded up, for APIs such as
+     * transaction timeouts that only accept second granularity
+     */
+    public int remainingSeconds() {
+        return (int) Math.max(1, (remainingMillis() + 999) / 1000);
+    }
+
+    /**
+     * Remaining budget capped at the given timeout, never less than 1 ms
+     * (0 would mean "no timeout" to most JDK APIs)
+     */
+    public int timeoutMillis(int configuredTimeout) {
+        long remaining = Math.max(1, remainingMillis());
+        return (int) (configuredTimeout > 0 ? Math.min(configuredTimeout, remaining) : Math.min(Integer.MAX_VALUE, remaining));
+    }
+
+    /**
+     * Abandon the current stage if the caller has already given up
+     */
+    public void checkNotExpired(String stage) {
+        if (isExpired()) {
+            throw new DeadlineExceededException("Request deadline exceeded before " + stage);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline[remaining=" + remainingMillis() + "ms]";
+    }
+}
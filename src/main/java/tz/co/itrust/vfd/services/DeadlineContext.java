@@ -0,0 +1,33 @@
+package tz.co.itrust.vfd.services;
+
+/**
+ * Holds the deadline of the request being processed on the current thread.
+ * Populated by {@link tz.co.itrust.vfd.config.DeadlineFilter} and read by the
+ * service and the outbound HTTP client, in the same way Spring's RequestContextHolder works.
+ */
+public final class DeadlineContext {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private DeadlineContext() {
+    }
+
+    /**
+     * Deadline of the current request, or null when running outside a request
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    public static void set(Deadline deadline) {
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+}
@@ -0,0 +1,80 @@
+package tz.co.itrust.vfd.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Cluster-wide exclusion of concurrent submissions of the same invoice, using claim rows in Postgres.
+ *
+ * A claim is a lease: it is inserted (auto-committed, so every instance sees it at once) before Power-VFD is
+ * called and deleted afterwards. Claims of crashed or hung holders expire and are taken over by the next
+ * request, so no lock outlives its lease and no database connection is held during the upstream call.
+ */
+@Service
+@Slf4j
+public class InvoiceClaimService {
+
+    // Inserts a new claim or takes over an expired one; updates nothing while another holder's lease is valid
+    private static final String CLAIM_SQL =
+            "INSERT INTO vfd_invoice_claims (custinvoiceno, owner, claimed_at, expires_at) " +
+            "VALUES (?, ?, now(), now() + ? * INTERVAL '1 millisecond') " +
+            "ON CONFLICT (custinvoiceno) DO UPDATE SET owner = EXCLUDED.owner, " +
+            "claimed_at = EXCLUDED.claimed_at, expires_at = EXCLUDED.expires_at " +
+            "WHERE vfd_invoice_claims.expires_at < now()";
+
+    private static final String RELEASE_SQL = "DELETE FROM vfd_invoice_claims WHERE custinvoiceno = ? AND owner = ?";
+
+    private static final String PURGE_SQL = "DELETE FROM vfd_invoice_claims WHERE expires_at < now()";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String instanceId = ManagementFactory.getRuntimeMXBean().getName();
+
+    // Outside a transaction the routing data source always uses the primary
+    public InvoiceClaimService(DataSource dataSource,
+                               @Value("${vfd.dedupe.query-timeout-seconds:5}") int queryTimeoutSeconds) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setQueryTimeout(queryTimeoutSeconds);
+    }
+
+    /**
+     * Claim the invoice for the given time. Returns the owner token to release it with, or empty while
+     * another request holds an unexpired claim.
+     */
+    public Optional<String> tryClaim(String custinvoiceno, long leaseMillis) {
+        String owner = instanceId + "/" + UUID.randomUUID();
+        int updated = jdbcTemplate.update(CLAIM_SQL, custinvoiceno, owner, leaseMillis);
+        return updated == 1 ? Optional.of(owner) : Optional.empty();
+    }
+
+    public void release(String custinvoiceno, String owner) {
+        try {
+            jdbcTemplate.update(RELEASE_SQL, custinvoiceno, owner);
+        } catch (Exception e) {
+            // The lease expires on its own
+            log.warn("Failed to release claim on invoice {}: {}", custinvoiceno, e.getMessage());
+        }
+    }
+
+    /**
+     * Delete expired claims left behind by crashed instances
+     */
+    @Scheduled(fixedDelayString = "${vfd.dedupe.purge-interval-ms:600000}")
+    public void purgeExpiredClaims() {
+        try {
+            int purged = jdbcTemplate.update(PURGE_SQL);
+            if (purged > 0) {
+                log.info("Purged {} expired invoice claims", purged);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to purge expired invoice claims: {}", e.getMessage());
+        }
+    }
+}
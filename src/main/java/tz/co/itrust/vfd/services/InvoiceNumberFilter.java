@@ -0,0 +1,246 @@
+package tz.co.itrust.vfd.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tz.co.itrust.vfd.cache.ScalableBloomFilter;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * In-memory bloom filter of every custinvoiceno in {@code vfd_receipts}, so a request for a new invoice (most of
+ * them) can skip the duplicate-check queries: a negative answer means the invoice was definitely never stored.
+ *
+ * The filter is built by a streaming scan of the primary after startup (answering "maybe" until then), updated by
+ * every receipt this instance stores, and caught up with receipts stored by other instances by a periodic scan
+ * of new ids. A miss can therefore be stale by up to one refresh interval for invoices stored elsewhere, which is
+ * why the claim path in {@link VfdService} always re-checks the database. With a snapshot file the filter and
+ * its id watermark are saved periodically and on shutdown, and a restart only scans receipts added since.
+ */
+@Service
+@Slf4j
+public class InvoiceNumberFilter {
+
+    private static final int SNAPSHOT_MAGIC = 0x56464946; // "VFIF"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // Ids are assigned at insert but become visible at commit, so an id just below the watermark may commit after
+    // a scan; rescanning a few ids back picks those up (keys already present are not added twice)
+    private static final long RESCAN_OVERLAP_IDS = 1000;
+
+    private static final String SCAN_SQL = "SELECT id, custinvoiceno FROM vfd_receipts WHERE id > ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Path snapshotFile;
+    private final Counter misses;
+    private final Counter maybes;
+    private final Counter falsePositives;
+    private volatile ScalableBloomFilter filter;
+    private volatile boolean ready;
+    private volatile long watermark;
+
+    public InvoiceNumberFilter(DataSource dataSource,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry registry,
+                               @Value("${vfd.invoice-filter.enabled:true}") boolean enabled,
+                               @Value("${vfd.invoice-filter.initial-capacity:1000000}") long initialCapacity,
+                               @Value("${vfd.invoice-filter.false-positive-rate:0.01}") double falsePositiveRate,
+                               @Value("${vfd.invoice-filter.snapshot-file:}") String snapshotFile,
+                               @Value("${vfd.invoice-filter.scan-fetch-size:10000}") int scanFetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(scanFetchSize);
+        // Read-write, so the scan runs on the primary; inside a transaction the Postgres driver streams with a cursor
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.snapshotFile = snapshotFile.isEmpty() ? null : Paths.get(snapshotFile);
+        this.filter = new ScalableBloomFilter(initialCapacity, falsePositiveRate);
+
+        this.misses = Counter.builder("vfd.invoice-filter.checks").tag("result", "miss")
+                .description("Duplicate checks answered by the invoice filter").register(registry);
+        this.maybes = Counter.builder("vfd.invoice-filter.checks").tag("result", "maybe")
+                .description("Duplicate checks answered by the invoice filter").register(registry);
+        this.falsePositives = Counter.builder("vfd.invoice-filter.false-positives")
+                .description("Invoice filter positives for which no receipt was stored").register(registry);
+        Gauge.builder("vfd.invoice-filter.false-positive-rate", this, f -> f.filter.expectedFalsePositiveProbability())
+                .description("False-positive probability estimated from the filter's set bits").register(registry);
+        Gauge.builder("vfd.invoice-filter.memory", this, f -> f.filter.sizeInBytes())
+                .baseUnit("bytes").description("Memory used by the invoice filter").register(registry);
+        Gauge.builder("vfd.invoice-filter.entries", this, f -> f.filter.insertions())
+                .description("Distinct invoice numbers in the filter").register(registry);
+    }
+
+    /**
+     * False only if no receipt with this invoice number was ever stored (as of the last refresh for other instances)
+     */
+    public boolean mightContain(String custinvoiceno) {
+        if (!enabled || !ready) {
+            return true;
+        }
+        boolean maybe = filter.mightContain(custinvoiceno);
+        (maybe ? maybes : misses).increment();
+        return maybe;
+    }
+
+    public void add(String custinvoiceno) {
+        if (enabled) {
+            filter.put(custinvoiceno);
+        }
+    }
+
+    /**
+     * The filter answered "maybe" but the database had no receipt for the invoice
+     */
+    public void recordFalsePositive() {
+        if (enabled && ready) {
+            falsePositives.increment();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // First among the ready listeners, so the scan overlaps the warm-up (see WarmupService)
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        Thread loader = new Thread(this::build, "invoice-filter-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void build() {
+        long started = System.nanoTime();
+        try {
+            loadSnapshot();
+            long scanned = catchUp();
+            ready = true;
+            log.info("Invoice filter ready: {} invoices ({} scanned), {} KB, estimated false-positive rate {} in {} ms",
+                    filter.insertions(), scanned, filter.sizeInBytes() / 1024,
+                    String.format("%.4f", filter.expectedFalsePositiveProbability()),
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (Exception e) {
+            // Without the filter every request runs the duplicate-check queries, as before
+            log.error("Failed to build the invoice filter, duplicate checks will query the database: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add invoices stored (by any instance) since the last scan, then save the snapshot
+     */
+    @Scheduled(fixedDelayString = "${vfd.invoice-filter.refresh-interval-ms:60000}",
+               initialDelayString = "${vfd.invoice-filter.refresh-interval-ms:60000}")
+    public void refresh() {
+        if (!ready) {
+            return;
+        }
+        try {
+            catchUp();
+            saveSnapshot();
+        } catch (Exception e) {
+            log.warn("Failed to refresh the invoice filter: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (ready) {
+            saveSnapshot();
+        }
+    }
+
+    private long catchUp() {
+        long from = Math.max(watermark - RESCAN_OVERLAP_IDS, 0);
+        long[] scan = new long[] {watermark, 0};
+        transactionTemplate.execute(status -> {
+            jdbcTemplate.query(SCAN_SQL, rs -> {
+                filter.put(rs.getString(2));
+                scan[0] = Math.max(scan[0], rs.getLong(1));
+                scan[1]++;
+            }, from);
+            return null;
+        });
+        watermark = scan[0];
+        return scan[1];
+    }
+
+    private void loadSnapshot() {
+        if (snapshotFile == null || !Files.exists(snapshotFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                log.warn("Ignoring unrecognised invoice filter snapshot {}", snapshotFile);
+                return;
+            }
+            long snapshotWatermark = in.readLong();
+            ScalableBloomFilter snapshot = ScalableBloomFilter.readFrom(in);
+            Long maxId = jdbcTemplate.queryForObject("SELECT max(id) FROM vfd_receipts", Long.class);
+            if (maxId == null || snapshotWatermark > maxId) {
+                // Taken from a different (or reset) database
+                log.warn("Ignoring invoice filter snapshot {}: watermark {} is past the last receipt id {}",
+                        snapshotFile, snapshotWatermark, maxId);
+                return;
+            }
+            filter = snapshot;
+            watermark = snapshotWatermark;
+            log.info("Loaded invoice filter snapshot {} ({} invoices, up to receipt id {})",
+                    snapshotFile, snapshot.insertions(), snapshotWatermark);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable invoice filter snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    private void saveSnapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            if (snapshotFile.getParent() != null) {
+                Files.createDirectories(snapshotFile.getParent());
+            }
+            Path tmp = Files.createTempFile(snapshotFile.toAbsolutePath().getParent(), snapshotFile.getFileName().toString(), ".tmp");
+            try {
+                // The watermark is read first: anything added after it is rescanned on restart
+                long snapshotWatermark = watermark;
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(SNAPSHOT_MAGIC);
+                    out.writeInt(SNAPSHOT_VERSION);
+                    out.writeLong(snapshotWatermark);
+                    filter.writeTo(out);
+                }
+                Files.move(tmp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to save invoice filter snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package tz.co.itrust.vfd.services;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tz.co.itrust.vfd.cache.BoundedLruCache;
+import tz.co.itrust.vfd.entity.VfdReceipt;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Serves receipt QR code images rendered locally from the stored {@code qrcodeUri} (or {@code rctvnum}).
+ *
+ * Images are content addressed: the key is a SHA-256 of the renderer settings and the source text, and is
+ * also the strong ETag. Rendered images are kept in a bounded in-memory cache and in a bounded directory on
+ * disk, and the rctvcode to key mapping is cached, so a reprint is one memory lookup without a database query.
+ *
+ * A stored data URI is served as it is only when it is a PNG or JPEG whose bytes match that type; anything else
+ * (SVG, HTML, a mislabelled payload) is never echoed back, and the QR code is rendered from {@code rctvnum}.
+ */
+@Service
+@Slf4j
+public class QrCodeService {
+
+    private static final String PNG = "image/png";
+    private static final String JPEG = "image/jpeg";
+    // v2: data URIs are only passed through for PNG and JPEG, so images cached by v1 are not reused
+    private static final String RENDERER_VERSION = "zxing-png-v2";
+
+    private final VfdService vfdService;
+    private final Path cacheDir;
+    private final int size;
+    private final long diskCacheMaxBytes;
+    private final BoundedLruCache<String, QrImage> images;
+    private final BoundedLruCache<String, String> keysByReceiptCode;
+
+    public QrCodeService(VfdService vfdService,
+                         @Value("${vfd.qr.cache-dir:${java.io.tmpdir}/vfd-qr-cache}") String cacheDir,
+                         @Value("${vfd.qr.size:300}") int size,
+                         @Value("${vfd.qr.memory-cache-bytes:33554432}") long memoryCacheBytes,
+                         @Value("${vfd.qr.disk-cache-max-bytes:1073741824}") long diskCacheMaxBytes) {
+        this.vfdService = vfdService;
+        this.cacheDir = Paths.get(cacheDir);
+        this.size = size;
+        this.diskCacheMaxBytes = diskCacheMaxBytes;
+        this.images = new BoundedLruCache<>(Integer.MAX_VALUE, memoryCacheBytes, image -> image.getBytes().length);
+        this.keysByReceiptCode = new BoundedLruCache<>(100_000);
+    }
+
+    /**
+     * QR image for the receipt with the given verification code, or empty if the receipt or its QR data is unknown
+     */
+    public Optional<QrImage> getQrCode(String rctvcode) {
+        String key = keysByReceiptCode.get(rctvcode);
+        if (key != null) {
+            QrImage cached = lookup(key);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+        }
+
+        Optional<VfdReceipt> receipt = vfdService.findByReceiptCode(rctvcode);
+        if (receipt.isEmpty()) {
+            return Optional.empty();
+        }
+        String source = receipt.get().getQrcodeUri();
+        if (source == null || source.startsWith("data:") && decodeImage(null, source) == null) {
+            source = receipt.get().getRctvnum();
+        }
+        if (source == null || source.isBlank()) {
+            return Optional.empty();
+        }
+
+        key = contentKey(source);
+        QrImage image = lookup(key);
+        if (image == null) {
+            image = render(key, source);
+            images.put(key, image);
+            writeToDisk(image);
+        }
+        keysByReceiptCode.put(rctvcode, key);
+        return Optional.of(image);
+    }
+
+    private QrImage lookup(String key) {
+        QrImage image = images.get(key);
+        if (image == null) {
+            image = readFromDisk(key);
+            if (image != null) {
+                images.put(key, image);
+            }
+        }
+        return image;
+    }
+
+    private QrImage render(String key, String source) {
+        // Power-VFD may already hand back the image as a data URI; serve those bytes as they are
+        if (source.startsWith("data:")) {
+            return decodeImage(key, source);
+        }
+
+        try {
+            Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+            hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+            hints.put(EncodeHintType.CHARACTER_SET, StandardCharsets.UTF_8.name());
+            hints.put(EncodeHintType.MARGIN, 2);
+            BitMatrix matrix = new QRCodeWriter().encode(source, BarcodeFormat.QR_CODE, size, size, hints);
+
+            BufferedImage image = new BufferedImage(matrix.getWidth(), matrix.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+            for (int y = 0; y < matrix.getHeight(); y++) {
+                for (int x = 0; x < matrix.getWidth(); x++) {
+                    image.setRGB(x, y, matrix.get(x, y) ? 0xFF000000 : 0xFFFFFFFF);
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            ImageIO.write(image, "png", out);
+            return new QrImage(key, PNG, out.toByteArray());
+        } catch (WriterException | IOException e) {
+            throw new IllegalStateException("Failed to render QR code: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The image of a base64 data URI if it is a PNG or JPEG and its bytes start with that format's signature,
+     * otherwise null
+     */
+    private static QrImage decodeImage(String key, String dataUri) {
+        int comma = dataUri.indexOf(',');
+        if (comma < 0) {
+            return null;
+        }
+        String[] header = dataUri.substring("data:".length(), comma).split(";");
+        String contentType = header[0].trim().toLowerCase(Locale.ROOT);
+        if (!PNG.equals(contentType) && !JPEG.equals(contentType)
+                || !"base64".equalsIgnoreCase(header[header.length - 1].trim())) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getMimeDecoder().decode(dataUri.substring(comma + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        boolean png = bytes.length > 8 && (bytes[0] & 0xFF) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G';
+        boolean jpeg = bytes.length > 3 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8 && (bytes[2] & 0xFF) == 0xFF;
+        if (PNG.equals(contentType) ? !png : !jpeg) {
+            return null;
+        }
+        return new QrImage(key, contentType, bytes);
+    }
+
+    private QrImage readFromDisk(String key) {
+        Path file = diskPath(key);
+        try {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            String contentType = Files.readString(file.resolveSibling(key + ".type")).trim();
+            return new QrImage(key, contentType, bytes);
+        } catch (IOException e) {
+            log.warn("Failed to read cached QR image {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(QrImage image) {
+        Path file = diskPath(image.getKey());
+        try {
+            Files.createDirectories(file.getParent());
+            Files.writeString(file.resolveSibling(image.getKey() + ".type"), image.getContentType());
+            // Write to a temporary file first so readers never see a partial image
+            Path tmp = Files.createTempFile(file.getParent(), image.getKey(), ".tmp");
+            Files.write(tmp, image.getBytes());
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("Failed to cache QR image on disk {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Keep the on-disk cache under vfd.qr.disk-cache-max-bytes by deleting the oldest images
+     */
+    @Scheduled(fixedDelayString = "${vfd.qr.disk-cache-trim-interval-ms:600000}")
+    public void trimDiskCache() {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            List<Path> images = files.filter(path -> path.toString().endsWith(".img"))
+                    .sorted(Comparator.comparingLong(this::lastModified))
+                    .collect(Collectors.toList());
+            long total = images.stream().mapToLong(this::fileSize).sum();
+            for (Path image : images) {
+                if (total <= diskCacheMaxBytes) {
+                    break;
+                }
+                total -= fileSize(image);
+                String key = image.getFileName().toString().replace(".img", "");
+                Files.deleteIfExists(image);
+                Files.deleteIfExists(image.resolveSibling(key + ".type"));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Failed to trim QR disk cache {}: {}", cacheDir, e.getMessage());
+        }
+    }
+
+    private Path diskPath(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + ".img");
+    }
+
+    private String contentKey(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((RENDERER_VERSION + "|" + size + "|").getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long fileSize(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A rendered QR image; {@code key} is its content address and strong ETag value
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class QrImage {
+        private final String key;
+        private final String contentType;
+        private final byte[] bytes;
+    }
+}
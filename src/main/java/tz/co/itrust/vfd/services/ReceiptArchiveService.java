@@ -0,0 +1,285 @@
+package tz.co.itrust.vfd.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tz.co.itrust.vfd.archive.ArchiveSegment;
+import tz.co.itrust.vfd.entity.VfdReceipt;
+import tz.co.itrust.vfd.repository.VfdReceiptRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cold archive of aged receipts: a scheduled job moves receipts older than {@code vfd.archive.min-age-days}
+ * (with their details) out of Postgres into immutable {@link ArchiveSegment} files, and lookups by rctvcode,
+ * znumber or invoice number fall back to the segments when the database has no match.
+ *
+ * A batch is written and forced to disk before its rows are deleted, in the transaction that selected them, so
+ * a receipt is never only in flight. If the delete fails the segment stays; the rows are archived again by the
+ * next run and the copies are identical. A Postgres advisory lock lets one instance archive at a time; every
+ * instance picks up segments written by others when {@code vfd.archive.dir} is shared.
+ */
+@Service
+@Slf4j
+public class ReceiptArchiveService {
+
+    // Arbitrary application-wide key for pg_try_advisory_xact_lock
+    private static final long ARCHIVE_LOCK_KEY = 0x5646444152434856L;
+
+    private static final String DELETE_DETAILS_SQL = "DELETE FROM vfd_receipt_details WHERE receipt_id = ANY(?)";
+    private static final String DELETE_RECEIPTS_SQL = "DELETE FROM vfd_receipts WHERE id = ANY(?)";
+
+    private final VfdReceiptRepository receiptRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper recordMapper;
+
+    @Value("${vfd.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${vfd.archive.dir:./vfd-archive}")
+    private String dir;
+
+    @Value("${vfd.archive.min-age-days:365}")
+    private int minAgeDays;
+
+    @Value("${vfd.archive.segment-receipts:5000}")
+    private int segmentReceipts;
+
+    @Value("${vfd.archive.block-bytes:65536}")
+    private int blockBytes;
+
+    @Value("${vfd.archive.bloom-false-positive-rate:0.01}")
+    private double bloomFalsePositiveRate;
+
+    @Value("${vfd.archive.max-segments-per-run:20}")
+    private int maxSegmentsPerRun;
+
+    // Newest first; replaced, never modified, so lookups read it without locking
+    private volatile List<ArchiveSegment> segments = List.of();
+
+    public ReceiptArchiveService(VfdReceiptRepository receiptRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 DataSource dataSource,
+                                 ObjectMapper objectMapper,
+                                 MeterRegistry registry) {
+        this.receiptRepository = receiptRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.recordMapper = ArchiveSegment.recordMapper(objectMapper);
+
+        Gauge.builder("vfd.archive.segments", this, archive -> archive.segments.size())
+                .description("Receipt archive segment files")
+                .register(registry);
+        Gauge.builder("vfd.archive.receipts", this,
+                        archive -> archive.segments.stream().mapToLong(ArchiveSegment::getRecordCount).sum())
+                .description("Receipts held in the archive")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void loadSegments() {
+        refreshSegments();
+        if (!segments.isEmpty()) {
+            log.info("Receipt archive: {} segments in {}", segments.size(), dir);
+        }
+    }
+
+    public Optional<VfdReceipt> findByReceiptCode(String rctvcode) {
+        for (ArchiveSegment segment : segments) {
+            List<VfdReceipt> found = search(segment, () -> segment.findByReceiptCode(rctvcode));
+            if (!found.isEmpty()) {
+                return Optional.of(found.get(0));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Latest archived receipt of the Z report, which may span several segments
+     */
+    public Optional<VfdReceipt> findByZNumber(String znumber) {
+        return segments.stream()
+                .flatMap(segment -> search(segment, () -> segment.findByZNumber(znumber)).stream())
+                .max(Comparator.comparing(VfdReceipt::getId));
+    }
+
+    /**
+     * Latest archived attempt for the invoice, whatever its outcome
+     */
+    public Optional<VfdReceipt> findLatestByCustinvoiceno(String custinvoiceno) {
+        return findByCustinvoiceno(custinvoiceno).stream().max(Comparator.comparing(VfdReceipt::getId));
+    }
+
+    /**
+     * Archived successful receipt for the invoice, so an invoice fiscalised before it was archived is not
+     * fiscalised again
+     */
+    public Optional<VfdReceipt> findSuccessfulByCustinvoiceno(String custinvoiceno) {
+        return findByCustinvoiceno(custinvoiceno).stream()
+                .filter(receipt -> "success".equals(receipt.getVfdStatus()) && receipt.getRctvcode() != null)
+                .max(Comparator.comparing(VfdReceipt::getId));
+    }
+
+    private List<VfdReceipt> findByCustinvoiceno(String custinvoiceno) {
+        List<VfdReceipt> found = new ArrayList<>();
+        for (ArchiveSegment segment : segments) {
+            found.addAll(search(segment, () -> segment.findByCustinvoiceno(custinvoiceno)));
+        }
+        return found;
+    }
+
+    /**
+     * Archive receipts older than the minimum age, one segment per batch, up to {@code max-segments-per-run}
+     */
+    @Scheduled(fixedDelayString = "${vfd.archive.interval-ms:3600000}",
+               initialDelayString = "${vfd.archive.initial-delay-ms:300000}")
+    public void archiveAgedReceipts() {
+        refreshSegments();
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(Paths.get(dir));
+            LocalDateTime cutoff = LocalDateTime.now().minusDays(minAgeDays);
+            int total = 0;
+            for (int i = 0; i < maxSegmentsPerRun; i++) {
+                int archived = archiveBatch(cutoff);
+                total += archived;
+                if (archived < segmentReceipts) {
+                    break;
+                }
+            }
+            if (total > 0) {
+                log.info("Archived {} receipts created before {}", total, cutoff);
+            }
+        } catch (Exception e) {
+            log.error("Receipt archiving failed: {}", e.getMessage(), e);
+        } finally {
+            refreshSegments();
+        }
+    }
+
+    private int archiveBatch(LocalDateTime cutoff) {
+        Integer archived = transactionTemplate.execute(status -> {
+            Boolean locked = jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, ARCHIVE_LOCK_KEY);
+            if (!Boolean.TRUE.equals(locked)) {
+                log.debug("Another instance is archiving receipts");
+                return 0;
+            }
+
+            List<Long> ids = receiptRepository.findIdsCreatedBefore(cutoff, PageRequest.of(0, segmentReceipts));
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            List<VfdReceipt> receipts = receiptRepository.findByIdIn(ids);
+            Path file = Paths.get(dir, String.format("receipts-%019d-%019d-%d%s",
+                    ids.get(0), ids.get(ids.size() - 1), System.currentTimeMillis(), ArchiveSegment.SUFFIX));
+            try {
+                ArchiveSegment.write(file, receipts, recordMapper, blockBytes, bloomFalsePositiveRate);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write archive segment " + file, e);
+            }
+
+            // write() returns once the segment and its directory entry are on disk, so the rows can go
+            Long[] archivedIds = ids.toArray(new Long[0]);
+            jdbcTemplate.update(DELETE_DETAILS_SQL, ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", archivedIds)));
+            jdbcTemplate.update(DELETE_RECEIPTS_SQL, ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", archivedIds)));
+            log.info("Archived receipts {}..{} ({}) to {}", ids.get(0), ids.get(ids.size() - 1), ids.size(), file.getFileName());
+            return ids.size();
+        });
+        return archived != null ? archived : 0;
+    }
+
+    /**
+     * Open segments that appeared in the archive directory (written here or by another instance) and close
+     * those that were removed
+     */
+    private synchronized void refreshSegments() {
+        Path directory = Paths.get(dir);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Map<Path, ArchiveSegment> open = new HashMap<>();
+        segments.forEach(segment -> open.put(segment.getFile(), segment));
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(ArchiveSegment.SUFFIX))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("Failed to list receipt archive {}: {}", directory, e.getMessage());
+            return;
+        }
+
+        List<ArchiveSegment> refreshed = new ArrayList<>();
+        for (Path file : files) {
+            ArchiveSegment segment = open.remove(file);
+            if (segment == null) {
+                try {
+                    segment = ArchiveSegment.open(file, recordMapper);
+                } catch (IOException e) {
+                    log.error("Skipping unreadable archive segment {}: {}", file, e.getMessage());
+                    continue;
+                }
+            }
+            refreshed.add(segment);
+        }
+        refreshed.sort(Comparator.comparing(ArchiveSegment::getMaxId).reversed()
+                .thenComparing(segment -> segment.getFile().getFileName().toString(), Comparator.reverseOrder()));
+        segments = List.copyOf(refreshed);
+        open.values().forEach(this::closeQuietly);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        segments.forEach(this::closeQuietly);
+        segments = List.of();
+    }
+
+    private List<VfdReceipt> search(ArchiveSegment segment, SegmentSearch search) {
+        try {
+            return search.run();
+        } catch (IOException e) {
+            // Failing the lookup is safer than a false miss, which could let an archived invoice be fiscalised again
+            throw new UncheckedIOException("Failed to read archive segment " + segment.getFile(), e);
+        }
+    }
+
+    private void closeQuietly(ArchiveSegment segment) {
+        try {
+            segment.close();
+        } catch (IOException e) {
+            log.debug("Failed to close archive segment {}: {}", segment.getFile(), e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface SegmentSearch {
+        List<VfdReceipt> run() throws IOException;
+    }
+}
@@ -0,0 +1,86 @@
+package tz.co.itrust.vfd.services;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tz.co.itrust.vfd.cache.BoundedLruCache;
+import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+import tz.co.itrust.vfd.entity.VfdReceipt;
+
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Receipt status lookups by custinvoiceno, rctvcode or znumber for POS terminals polling for a result.
+ *
+ * A successful receipt never changes once stored, so final lookups are cached in memory and carry validators
+ * (ETag, Last-Modified) that let clients revalidate without a body. Pending or failed receipts can still be
+ * retried, so they are always read from the database and never cached. A Z number is shared by all receipts of
+ * a Z report, so a lookup by znumber returns the latest of them; that answer changes as receipts are added, so
+ * it is never final either.
+ */
+@Service
+@Slf4j
+public class ReceiptLookupService {
+
+    private final VfdService vfdService;
+    private final ReceiptMapper receiptMapper;
+    private final BoundedLruCache<String, ReceiptLookup> finalReceipts;
+
+    public ReceiptLookupService(VfdService vfdService,
+                                ReceiptMapper receiptMapper,
+                                @Value("${vfd.lookup.cache-size:10000}") int cacheSize) {
+        this.vfdService = vfdService;
+        this.receiptMapper = receiptMapper;
+        this.finalReceipts = new BoundedLruCache<>(cacheSize);
+    }
+
+    public Optional<ReceiptLookup> findByCustinvoiceno(String custinvoiceno) {
+        return lookup("custinvoiceno:" + custinvoiceno, custinvoiceno, vfdService::findLatestByCustinvoiceno);
+    }
+
+    public Optional<ReceiptLookup> findByReceiptCode(String rctvcode) {
+        return lookup("rctvcode:" + rctvcode, rctvcode, vfdService::findByReceiptCode);
+    }
+
+    public Optional<ReceiptLookup> findByZNumber(String znumber) {
+        return vfdService.findByZNumber(znumber).map(receipt -> toLookup(receipt, false));
+    }
+
+    private Optional<ReceiptLookup> lookup(String cacheKey, String value, Function<String, Optional<VfdReceipt>> query) {
+        ReceiptLookup cached = finalReceipts.get(cacheKey);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        Optional<ReceiptLookup> lookup = query.apply(value).map(receipt -> toLookup(receipt, true));
+        lookup.filter(ReceiptLookup::isFinal).ifPresent(receipt -> finalReceipts.put(cacheKey, receipt));
+        return lookup;
+    }
+
+    private ReceiptLookup toLookup(VfdReceipt receipt, boolean canBeFinal) {
+        VfdReceiptResponse response = receiptMapper.buildResponseFromStoredReceipt(receipt);
+        boolean isFinal = canBeFinal && "success".equals(receipt.getVfdStatus()) && receipt.getRctvcode() != null;
+        long lastModified = receipt.getCreatedAt() != null
+                ? receipt.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : -1;
+        // Weak: the envelope around the receipt carries a per-response timestamp, so bodies are equivalent, not identical
+        String etag = "W/\"" + receipt.getId() + "-" + Integer.toHexString(response.hashCode()) + "\"";
+        return new ReceiptLookup(response, isFinal, etag, lastModified);
+    }
+
+    /**
+     * A receipt status; {@code etag} and {@code lastModified} are only sent to clients once the receipt is final
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class ReceiptLookup {
+        private final VfdReceiptResponse response;
+        private final boolean isFinal;
+        private final String etag;
+        private final long lastModified;
+    }
+}
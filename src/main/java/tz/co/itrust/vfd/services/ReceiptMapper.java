@@ -0,0 +1,193 @@
+package tz.co.itrust.vfd.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+import tz.co.itrust.vfd.entity.VfdReceipt;
+import tz.co.itrust.vfd.entity.VfdReceiptDetail;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Stateless mapping between receipt requests, the Power-VFD payload, stored receipts and responses.
+ * Needs only Jackson and the configured fcode, so it can be built on its own (benchmarks, warm-up).
+ */
+@Component
+@Slf4j
+public class ReceiptMapper {
+
+    private final ObjectMapper objectMapper;
+    private final String fcode;
+    private final String fcodetoken;
+
+    public ReceiptMapper(ObjectMapper objectMapper,
+                         @Value("${vfd.fcode:F1000}") String fcode,
+                         @Value("${vfd.fcodetoken:YzJVME1qTnFWV2h6TURJekxUTTROR3B6WVVveU1ESXlMVEF5TFRBektrWXhNREF3S2pBNU9qVTJPakV6TURNMExYQmpkRE15T1MweU16Z3lNdz09}") String fcodetoken) {
+        this.objectMapper = objectMapper;
+        this.fcode = fcode;
+        this.fcodetoken = fcodetoken;
+    }
+
+    public Object transformRequestToExternalFormat(VfdReceiptRequest request) {
+        // Transform to match the exact payload format specified by user
+        Map<String, Object> requestBody = new HashMap<>();
+        
+        Map<String, Object> invoice = new HashMap<>();
+        invoice.put("idate", request.getIdate());
+        invoice.put("itime", request.getItime());
+        invoice.put("custinvoiceno", request.getCustinvoiceno() != null ? request.getCustinvoiceno() : "");
+        invoice.put("custidtype", String.valueOf(request.getCustidtype()));
+        invoice.put("custid", request.getCustid() != null ? request.getCustid() : "");
+        invoice.put("custname", request.getCustname() != null ? request.getCustname() : "");
+        invoice.put("username", request.getUsername() != null ? request.getUsername() : "");
+        invoice.put("branch", request.getBranch() != null ? request.getBranch() : "");
+        invoice.put("department", request.getDepartment() != null ? request.getDepartment() : "");
+        invoice.put("device_number", request.getDevicenumber() != null ? request.getDevicenumber() : "");
+        invoice.put("paytype", String.valueOf(request.getPaytype()));
+        // Include fcode and fcodetoken within each invoice object as specified
+        invoice.put("fcode", fcode);
+        invoice.put("fcodetoken", fcodetoken);
+
+        List<Map<String, Object>> invoiceDetails = request.getInvoiceDetails().stream()
+                .map(detail -> {
+                    Map<String, Object> detailMap = new HashMap<>();
+                    detailMap.put("description", detail.getDescription());
+                    detailMap.put("qty", detail.getQty());
+                    detailMap.put("taxcode", detail.getTaxcode());
+                    detailMap.put("amt", detail.getAmt());
+                    return detailMap;
+                })
+                .collect(Collectors.toList());
+
+        invoice.put("invoiceDetails", invoiceDetails);
+
+        List<Map<String, Object>> invoiceList = new ArrayList<>();
+        invoiceList.add(invoice);
+        requestBody.put("invoice", invoiceList);
+        
+        return requestBody;
+    }
+
+    /**
+     * Build the receipt entity (with its line items) to persist for a processed request
+     */
+    public VfdReceipt buildReceiptEntity(VfdReceiptRequest request, VfdReceiptResponse response) {
+        BigDecimal totalAmount = request.getInvoiceDetails().stream()
+                .map(VfdReceiptRequest.VfdInvoiceDetail::getAmt)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+
+        // Store the complete external request and response
+        String externalRequest = null;
+        String externalResponse = null;
+        try {
+            externalRequest = objectMapper.writeValueAsString(request);
+            externalResponse = objectMapper.writeValueAsString(response);
+        } catch (Exception e) {
+            log.warn("Failed to serialize request/response: {}", e.getMessage());
+        }
+
+        VfdReceipt receipt = VfdReceipt.builder()
+                .idate(request.getIdate())
+                .itime(request.getItime())
+                .custinvoiceno(request.getCustinvoiceno())
+                .custidtype(request.getCustidtype())
+                .custid(request.getCustid())
+                .custname(request.getCustname())
+                .mobilenum(request.getMobilenum())
+                .branch(request.getBranch())
+                .department(request.getDepartment())
+                .devicenumber(request.getDevicenumber())
+                .paytype(request.getPaytype())
+                .username(request.getUsername())
+                .totalAmount(totalAmount)
+                .createdAt(LocalDateTime.now())
+                .vfdResponse(response != null ? response.toString() : null)
+                .qrCodePath(response != null ? response.getQrpath() : null)
+                .receiptNumber(response != null ? response.getVfdinvoicenum() : null)
+                // New VFD response fields
+                .rctvnum(response != null ? response.getRctvnum() : null)
+                .rctvcode(response != null ? response.getRctvcode() : null)
+                .znumber(response != null ? response.getZnumber() : null)
+                .qrpath(response != null ? response.getQrpath() : null)
+                .qrcodeUri(response != null ? response.getQrcode_uri() : null)
+                .statusCodeText(response != null ? response.getStatusCodeText() : null)
+                .errorMessage(response != null ? response.getErrorMessage() : null)
+                // New VFD request fields
+                .fcodeToken(fcodetoken)
+                .fcode(fcode)
+                .custidType(request.getCustidtype())
+                // Complete request/response storage
+                .externalVfdRequest(externalRequest)
+                .externalVfdResponse(externalResponse)
+                // VFD status fields
+                .vfdStatus(response != null ? response.getStatus() : null)
+                .vfdHttpStatus(response != null ? response.getStatusCode() : null)
+                .build();
+
+        List<VfdReceiptDetail> details = request.getInvoiceDetails().stream()
+                .map(detail -> VfdReceiptDetail.builder()
+                        .receipt(receipt)
+                        .description(detail.getDescription())
+                        .qty(detail.getQty())
+                        .taxcode(detail.getTaxcode())
+                        .amt(detail.getAmt())
+                        .build())
+                .collect(Collectors.toList());
+
+        receipt.setReceiptDetails(details);
+        return receipt;
+    }
+
+    /**
+     * Build VfdReceiptResponse from existing receipt data (cached response)
+     */
+    public VfdReceiptResponse buildResponseFromExistingReceipt(VfdReceipt receipt) {
+        log.info("Building cached response for receipt: {} (ID: {})", receipt.getCustinvoiceno(), receipt.getId());
+        
+        return VfdReceiptResponse.builder()
+                .rctvnum(receipt.getRctvnum())
+                .rctvcode(receipt.getRctvcode())
+                .znumber(receipt.getZnumber())
+                .vfdinvoicenum(receipt.getReceiptNumber() != null ? receipt.getReceiptNumber() : receipt.getCustinvoiceno())
+                .idate(receipt.getIdate())
+                .itime(receipt.getItime())
+                .senttime(receipt.getCreatedAt() != null ? receipt.getCreatedAt().toString() : receipt.getItime())
+                .message("Success (cached)")
+                .status("success")
+                .qrpath(receipt.getQrpath())
+                .qrcode_uri(receipt.getQrcodeUri())
+                .statusCodeText(receipt.getStatusCodeText() != null ? receipt.getStatusCodeText() : "HTTP_OK")
+                .statusCode(receipt.getVfdHttpStatus() != null ? receipt.getVfdHttpStatus() : 200)
+                .build();
+    }
+
+    /**
+     * Build the status of a stored receipt, whatever its outcome, for the lookup endpoints
+     */
+    public VfdReceiptResponse buildResponseFromStoredReceipt(VfdReceipt receipt) {
+        if ("success".equals(receipt.getVfdStatus()) && receipt.getRctvcode() != null) {
+            return buildResponseFromExistingReceipt(receipt);
+        }
+
+        return VfdReceiptResponse.builder()
+                .vfdinvoicenum(receipt.getReceiptNumber() != null ? receipt.getReceiptNumber() : receipt.getCustinvoiceno())
+                .idate(receipt.getIdate())
+                .itime(receipt.getItime())
+                .senttime(receipt.getCreatedAt() != null ? receipt.getCreatedAt().toString() : receipt.getItime())
+                .message(receipt.getErrorMessage() != null ? receipt.getErrorMessage() : "VFD Error")
+                .status(receipt.getVfdStatus() != null ? receipt.getVfdStatus() : "error")
+                .errorMessage(receipt.getErrorMessage())
+                .statusCodeText(receipt.getStatusCodeText())
+                .statusCode(receipt.getVfdHttpStatus())
+                .build();
+    }
+}
@@ -0,0 +1,300 @@
+package tz.co.itrust.vfd.services;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+import tz.co.itrust.vfd.exceptions.RequestValidationException;
+import tz.co.itrust.vfd.validation.ReceiptRequestValidator;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bulk ingest of newline-delimited JSON receipts, for devices replaying days of offline sales in one upload.
+ *
+ * Records are read one at a time with a streaming parser, validated on arrival and handed to a shared worker
+ * pool that runs each through {@link VfdService#processReceipt} (duplicate check, claim, Power-VFD, store) with
+ * its own deadline of {@code vfd.stream.record-budget-ms}. A stream has at most {@code vfd.stream.max-in-flight}
+ * records in progress; beyond that the next record is not read, so the socket's receive window fills and the
+ * client's upload blocks. Results are written by the request thread, one NDJSON line per record in completion
+ * order (so not necessarily in upload order), after each record is read, while the stream waits at its limit
+ * and once the body ends; a summary line ends the response. Memory per stream is bounded by the records in
+ * flight, whatever the size of the upload, and each record is traced separately.
+ */
+@Service
+@Slf4j
+public class ReceiptStreamService {
+
+    private final VfdService vfdService;
+    private final ReceiptRequestValidator receiptRequestValidator;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader recordReader;
+    private final ExecutorService workers;
+    private final int maxInFlight;
+    private final long recordBudgetMs;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter invalid;
+    private final Tracer tracer;
+
+    public ReceiptStreamService(VfdService vfdService,
+                                ReceiptRequestValidator receiptRequestValidator,
+                                ObjectMapper objectMapper,
+                                MeterRegistry registry,
+                                ObjectProvider<OpenTelemetry> openTelemetry,
+                                @Value("${vfd.stream.workers:16}") int workers,
+                                @Value("${vfd.stream.max-in-flight:8}") int maxInFlight,
+                                @Value("${vfd.stream.record-budget-ms:${vfd.deadline.default-budget-ms:${vfd.timeout:60000}}}") long recordBudgetMs) {
+        this.vfdService = vfdService;
+        this.receiptRequestValidator = receiptRequestValidator;
+        this.objectMapper = objectMapper;
+        this.recordReader = objectMapper.readerFor(VfdReceiptRequest.class);
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.recordBudgetMs = recordBudgetMs;
+        this.tracer = openTelemetry.getIfAvailable(OpenTelemetry::noop).getTracer(ReceiptStreamService.class.getPackageName());
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(workers, 1),
+                runnable -> new Thread(runnable, "receipt-stream-" + threads.incrementAndGet()));
+
+        this.succeeded = Counter.builder("vfd.stream.records").tag("result", "success")
+                .description("Records received on /receipts/stream").register(registry);
+        this.failed = Counter.builder("vfd.stream.records").tag("result", "error")
+                .description("Records received on /receipts/stream").register(registry);
+        this.invalid = Counter.builder("vfd.stream.records").tag("result", "invalid")
+                .description("Records received on /receipts/stream").register(registry);
+        Gauge.builder("vfd.stream.in-flight", inFlight, AtomicInteger::get)
+                .description("Streamed records being processed").register(registry);
+    }
+
+    /**
+     * Process every record of {@code in} and write one result line per record to {@code out}, formatting
+     * processed receipts with {@code formatter} (the {@code /receipt} response body)
+     */
+    public void process(InputStream in, OutputStream out, Function<VfdReceiptResponse, Map<String, Object>> formatter)
+            throws IOException {
+        ResultWriter writer = new ResultWriter(out);
+        // Workers hand finished lines over here and only the request thread writes to the client, so a client that
+        // does not read its response blocks its own stream and never a shared worker. Holds at most max-in-flight
+        // lines: a record counts as in flight until its line has been written.
+        BlockingQueue<Map<String, Object>> results = new ArrayBlockingQueue<>(maxInFlight);
+        SpanContext streamSpan = Span.current().getSpanContext();
+        StreamCounts counts = new StreamCounts();
+        String error = null;
+        long record = 0;
+        int outstanding = 0;
+
+        try (MappingIterator<VfdReceiptRequest> records = recordReader.readValues(in)) {
+            while (!writer.broken) {
+                VfdReceiptRequest request;
+                try {
+                    if (!records.hasNextValue()) {
+                        break;
+                    }
+                    record++;
+                    request = records.nextValue();
+                } catch (JsonParseException e) {
+                    // Not JSON any more, there is no next record to resynchronise on
+                    error = "Malformed NDJSON at line " + e.getLocation().getLineNr() + ": " + e.getOriginalMessage();
+                    break;
+                } catch (JsonMappingException e) {
+                    // A well-formed record with a field of the wrong type: skipped, the stream goes on
+                    writer.write(errorLine(record, null, "400", "Invalid record: " + e.getOriginalMessage()));
+                    counts.invalid.incrementAndGet();
+                    invalid.increment();
+                    continue;
+                }
+
+                try {
+                    receiptRequestValidator.validate(request);
+                } catch (RequestValidationException e) {
+                    writer.write(errorLine(record, request.getCustinvoiceno(), "400", e.getMessage()));
+                    counts.invalid.incrementAndGet();
+                    invalid.increment();
+                    continue;
+                }
+
+                // At max-in-flight, wait for a result before reading on, which stops reading the upload
+                for (; outstanding >= maxInFlight; outstanding--) {
+                    writer.write(takeUninterruptibly(results));
+                }
+                long number = record;
+                try {
+                    workers.execute(() -> results.add(processRecord(number, request, formatter, counts, streamSpan)));
+                    outstanding++;
+                } catch (RejectedExecutionException e) {
+                    writer.write(errorLine(number, request.getCustinvoiceno(), "503", "Service is shutting down"));
+                    counts.failed.incrementAndGet();
+                    break;
+                }
+                for (Map<String, Object> line = results.poll(); line != null; line = results.poll()) {
+                    writer.write(line);
+                    outstanding--;
+                }
+            }
+        } catch (IOException e) {
+            // The upload was cut off; the records read so far are still completed
+            error = "Upload interrupted after " + record + " records: " + e.getMessage();
+        }
+
+        for (; outstanding > 0; outstanding--) {
+            writer.write(takeUninterruptibly(results));
+        }
+        if (error != null) {
+            log.warn("Receipt stream ended early: {}", error);
+        }
+        writer.write(summaryLine(record, counts, error));
+        if (writer.broken) {
+            log.warn("Receipt stream client went away after {} records; processed receipts are stored and can be "
+                    + "looked up with GET /receipt", record);
+        }
+    }
+
+    private static Map<String, Object> takeUninterruptibly(BlockingQueue<Map<String, Object>> results) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return results.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Each record is its own trace, linked to the stream's request, so a long upload does not collect every
+     * record's spans in one trace and the tail sampler keeps slow or failed records individually
+     */
+    private Map<String, Object> processRecord(long number, VfdReceiptRequest request,
+                                              Function<VfdReceiptResponse, Map<String, Object>> formatter,
+                                              StreamCounts counts, SpanContext streamSpan) {
+        inFlight.incrementAndGet();
+        DeadlineContext.set(Deadline.after(recordBudgetMs));
+        Span span = tracer.spanBuilder("vfd.stream.record")
+                .setNoParent()
+                .addLink(streamSpan)
+                .setAttribute("vfd.stream.record", number)
+                .startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            VfdReceiptResponse response = vfdService.processReceipt(request);
+            boolean success = "success".equals(response.getStatus());
+            (success ? counts.succeeded : counts.failed).incrementAndGet();
+            (success ? succeeded : failed).increment();
+
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("record", number);
+            line.put("custinvoiceno", request.getCustinvoiceno());
+            line.putAll(formatter.apply(response));
+            return line;
+        } catch (Exception e) {
+            log.error("Error processing streamed receipt {}: {}", request.getCustinvoiceno(), e.getMessage(), e);
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR, e.getMessage());
+            counts.failed.incrementAndGet();
+            failed.increment();
+            return errorLine(number, request.getCustinvoiceno(), "500", "Service Error: " + e.getMessage());
+        } finally {
+            span.end();
+            DeadlineContext.clear();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static Map<String, Object> errorLine(long number, String custinvoiceno, String statusCode, String message) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("record", number);
+        line.put("custinvoiceno", custinvoiceno);
+        line.put("timestamp", LocalDateTime.now().toString());
+        line.put("statusCode", statusCode);
+        line.put("message", message);
+        return line;
+    }
+
+    private static Map<String, Object> summaryLine(long records, StreamCounts counts, String error) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("summary", true);
+        line.put("timestamp", LocalDateTime.now().toString());
+        line.put("statusCode", error == null ? "600" : "400");
+        line.put("message", error == null ? "Success" : error);
+        line.put("records", records);
+        line.put("succeeded", counts.succeeded.get());
+        line.put("failed", counts.failed.get());
+        line.put("invalid", counts.invalid.get());
+        return line;
+    }
+
+    @PreDestroy
+    public void close() {
+        workers.shutdown();
+    }
+
+    private static class StreamCounts {
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+    }
+
+    /**
+     * Writes result lines on the request thread, flushing each so the client sees progress; a write that blocks
+     * because the client is not reading stops this stream's upload and nothing else
+     */
+    private final class ResultWriter {
+
+        private final OutputStream out;
+        private boolean broken;
+
+        private ResultWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(Map<String, Object> line) {
+            if (broken) {
+                return;
+            }
+            try {
+                out.write(objectMapper.writeValueAsBytes(line));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                log.debug("Failed to write receipt stream result: {}", e.getMessage());
+                broken = true;
+            }
+        }
+    }
+}
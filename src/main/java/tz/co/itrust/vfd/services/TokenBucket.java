@@ -0,0 +1,80 @@
+package tz.co.itrust.vfd.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, kept as a single theoretical-arrival-time value updated with CAS (GCRA).
+ * A rate of zero or less means unlimited.
+ */
+public final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+        this.burstNanos = intervalNanos * Math.max(burst - 1, 0);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * Take one permit if available
+     */
+    public boolean tryAcquire() {
+        if (intervalNanos == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long next = Math.max(tat, now) + intervalNanos;
+            if (next - now > burstNanos + intervalNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserve the next permit if it becomes available within {@code maxWaitNanos}. Returns the nanoseconds to wait
+     * before using it (0 if available now), or -1 without reserving anything if the wait would be longer.
+     */
+    public long reserve(long maxWaitNanos) {
+        if (intervalNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long wait = Math.max(tat - burstNanos - now, 0);
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (theoreticalArrival.compareAndSet(tat, Math.max(tat, now) + intervalNanos)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * Nanoseconds until the next permit becomes available, 0 if one is available now
+     */
+    public long nanosUntilAvailable() {
+        if (intervalNanos == 0) {
+            return 0;
+        }
+        long wait = theoreticalArrival.get() - burstNanos - System.nanoTime();
+        return Math.max(wait, 0);
+    }
+
+    /**
+     * True when the bucket holds its whole burst, i.e. is indistinguishable from a new one
+     */
+    public boolean isFull() {
+        return intervalNanos == 0 || theoreticalArrival.get() - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,383 @@
+package tz.co.itrust.vfd.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Load balancing and failover across the Power-VFD receiver endpoints in {@code vfd.power-vfd-urls}.
+ *
+ * Each submission goes to the healthy endpoint with the lowest expected latency: with the default
+ * {@code peak-ewma} balancer the score is the endpoint's peak-sensitive moving average of response times times
+ * its outstanding requests plus one, so a node that turns slow or starts queueing loses traffic within a few
+ * requests, and {@code least-outstanding} uses the outstanding count alone. A node that answers nothing is
+ * ejected after {@code eject-after-failures} consecutive failures (I/O errors and 5xx on live traffic, HEAD
+ * health checks left unanswered) for a backoff that doubles with each ejection, and is re-admitted once a health
+ * check is answered again.
+ *
+ * A submission is only retried on another endpoint when the connection could not be opened, so the receipt
+ * never reached the failed node; once the request was sent a failure is returned as before, because Power-VFD
+ * may already have fiscalised it.
+ */
+@Component
+@Slf4j
+public class UpstreamEndpoints {
+
+    private static final String PEAK_EWMA = "peak-ewma";
+
+    private final List<Endpoint> endpoints;
+    private final boolean peakEwma;
+    private final double decayNanos;
+    private final int ejectAfterFailures;
+    private final long ejectionMillis;
+    private final long maxEjectionMillis;
+    private final int maxAttempts;
+    private final RestTemplate healthCheckClient;
+
+    public UpstreamEndpoints(MeterRegistry registry,
+                             @Value("${vfd.power-vfd-urls:${vfd.power-vfd-url:http://41.222.92.81:8082/power-vfd-new/apis/web/auth/receiver}}") String urls,
+                             @Value("${vfd.upstream.balancer:peak-ewma}") String balancer,
+                             @Value("${vfd.upstream.ewma-decay-ms:10000}") long ewmaDecayMs,
+                             @Value("${vfd.upstream.eject-after-failures:3}") int ejectAfterFailures,
+                             @Value("${vfd.upstream.ejection-ms:5000}") long ejectionMillis,
+                             @Value("${vfd.upstream.max-ejection-ms:60000}") long maxEjectionMillis,
+                             @Value("${vfd.upstream.max-attempts:3}") int maxAttempts,
+                             @Value("${vfd.upstream.health-check-timeout-ms:2000}") int healthCheckTimeoutMs) {
+        this.peakEwma = PEAK_EWMA.equalsIgnoreCase(balancer);
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(ewmaDecayMs, 1));
+        this.ejectAfterFailures = Math.max(ejectAfterFailures, 1);
+        this.ejectionMillis = ejectionMillis;
+        this.maxEjectionMillis = Math.max(maxEjectionMillis, ejectionMillis);
+        this.maxAttempts = Math.max(maxAttempts, 1);
+
+        this.endpoints = Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .distinct()
+                .map(url -> new Endpoint(url, registry))
+                .collect(Collectors.toList());
+        if (endpoints.isEmpty()) {
+            throw new IllegalStateException("vfd.power-vfd-urls lists no Power-VFD endpoint");
+        }
+
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(healthCheckTimeoutMs);
+        factory.setReadTimeout(healthCheckTimeoutMs);
+        this.healthCheckClient = new RestTemplate(factory);
+        // Any answer shows the node is up, whatever the receiver URL makes of a HEAD request
+        this.healthCheckClient.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) throws IOException {
+                return false;
+            }
+        });
+
+        log.info("Power-VFD endpoints ({} balancer): {}", peakEwma ? PEAK_EWMA : "least-outstanding", urls());
+    }
+
+    public List<String> urls() {
+        return endpoints.stream().map(endpoint -> endpoint.url).collect(Collectors.toList());
+    }
+
+    /**
+     * Send one submission through {@code call}, which receives the chosen endpoint's URL, failing over to another
+     * endpoint only when the connection could not be opened
+     */
+    public <T> T execute(Function<String, T> call) {
+        Set<Endpoint> tried = new HashSet<>();
+        while (true) {
+            Endpoint endpoint = choose(tried);
+            tried.add(endpoint);
+            long started = endpoint.begin();
+            try {
+                T result = call.apply(endpoint.url);
+                endpoint.end(started, Outcome.SUCCESS);
+                return result;
+            } catch (RuntimeException e) {
+                boolean notSent = isConnectFailure(e);
+                Deadline deadline = DeadlineContext.current();
+                boolean expired = deadline != null && deadline.isExpired();
+                if (expired && !notSent) {
+                    // Our own deadline cut the call short: the endpoint took at least this long, nothing more is known
+                    endpoint.end(started, Outcome.ABANDONED);
+                    throw e;
+                }
+                endpoint.end(started, notSent ? Outcome.CONNECT_FAILURE : isEndpointFailure(e) ? Outcome.FAILURE : Outcome.SUCCESS);
+                if (!notSent || expired || tried.size() >= Math.min(maxAttempts, endpoints.size())) {
+                    throw e;
+                }
+                log.warn("Power-VFD endpoint {} unreachable ({}), failing over", endpoint.url, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * HEAD every endpoint: any answer re-admits an ejected endpoint once its ejection has run out, no answer
+     * counts as a failure
+     */
+    @Scheduled(fixedDelayString = "${vfd.upstream.health-check-interval-ms:5000}",
+               initialDelayString = "${vfd.upstream.health-check-interval-ms:5000}")
+    public void checkHealth() {
+        if (endpoints.size() < 2) {
+            return;
+        }
+        for (Endpoint endpoint : endpoints) {
+            try {
+                healthCheckClient.execute(endpoint.url, HttpMethod.HEAD, null, ClientHttpResponse::getRawStatusCode);
+                endpoint.healthCheckPassed();
+            } catch (RuntimeException e) {
+                log.debug("Health check of Power-VFD endpoint {} failed: {}", endpoint.url, e.getMessage());
+                endpoint.recordFailure();
+            }
+        }
+    }
+
+    private Endpoint choose(Set<Endpoint> tried) {
+        long now = System.nanoTime();
+        List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (!tried.contains(endpoint) && endpoint.isInRotation()) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // Every endpoint is ejected (or already tried): trying one beats failing without a call
+            for (Endpoint endpoint : endpoints) {
+                if (!tried.contains(endpoint)) {
+                    candidates.add(endpoint);
+                }
+            }
+        }
+
+        // Start at a random candidate so ties (e.g. after startup) spread across the endpoints
+        int start = ThreadLocalRandom.current().nextInt(candidates.size());
+        Endpoint best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Endpoint endpoint = candidates.get((start + i) % candidates.size());
+            double score = endpoint.score(now);
+            if (score < bestScore) {
+                best = endpoint;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * True if the request never left this instance, so it is safe to send it elsewhere
+     */
+    static boolean isConnectFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException) {
+                return true;
+            }
+            // A timeout only means "not sent" if it happened while connecting (an unreachable or blackholed host),
+            // told apart from a read timeout by where it was thrown rather than by the JDK's message wording
+            if (cause instanceof SocketTimeoutException && thrownByConnect(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean thrownByConnect(Throwable timeout) {
+        for (StackTraceElement frame : timeout.getStackTrace()) {
+            if ("connect".equals(frame.getMethodName()) && Socket.class.getName().equals(frame.getClassName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEndpointFailure(RuntimeException e) {
+        // 4xx and business errors come from a working node; 5xx and I/O errors do not
+        return e instanceof HttpServerErrorException || !(e instanceof RestClientResponseException);
+    }
+
+    private enum Outcome {
+        SUCCESS, FAILURE, CONNECT_FAILURE, ABANDONED;
+
+        String tag() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    private final class Endpoint {
+
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Timer[] timers = new Timer[Outcome.values().length];
+        private final Counter ejections;
+
+        // Guarded by this
+        private double costNanos;
+        private long costUpdatedNanos = System.nanoTime();
+        private int consecutiveFailures;
+        private int consecutiveEjections;
+        private volatile long ejectedUntilMillis;
+
+        private Endpoint(String url, MeterRegistry registry) {
+            this.url = url;
+            URI uri = URI.create(url);
+            String tag = uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+
+            for (Outcome outcome : Outcome.values()) {
+                timers[outcome.ordinal()] = Timer.builder("vfd.upstream.requests")
+                        .tag("endpoint", tag)
+                        .tag("outcome", outcome.tag())
+                        .description("Power-VFD submissions per endpoint and outcome")
+                        .register(registry);
+            }
+            this.ejections = Counter.builder("vfd.upstream.ejections").tag("endpoint", tag)
+                    .description("Times the endpoint was taken out of rotation").register(registry);
+            Gauge.builder("vfd.upstream.outstanding", outstanding, AtomicInteger::get).tag("endpoint", tag)
+                    .description("Power-VFD submissions in flight per endpoint").register(registry);
+            Gauge.builder("vfd.upstream.latency.ewma", this, endpoint -> endpoint.decayedCost(System.nanoTime()) / 1_000_000)
+                    .tag("endpoint", tag).baseUnit("milliseconds")
+                    .description("Peak-sensitive moving average of the endpoint's response time").register(registry);
+            Gauge.builder("vfd.upstream.healthy", this, endpoint -> endpoint.isInRotation() ? 1 : 0)
+                    .tag("endpoint", tag)
+                    .description("1 while the endpoint is in rotation, 0 while it is ejected").register(registry);
+        }
+
+        long begin() {
+            outstanding.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        void end(long started, Outcome outcome) {
+            long now = System.nanoTime();
+            outstanding.decrementAndGet();
+            timers[outcome.ordinal()].record(now - started, TimeUnit.NANOSECONDS);
+            switch (outcome) {
+                case SUCCESS:
+                    observe(now, now - started);
+                    answered();
+                    break;
+                case FAILURE:
+                    observe(now, now - started);
+                    recordFailure();
+                    break;
+                case CONNECT_FAILURE:
+                    recordFailure();
+                    break;
+                case ABANDONED:
+                    observeAtLeast(now, now - started);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        boolean isInRotation() {
+            return ejectedUntilMillis == 0;
+        }
+
+        /**
+         * Expected cost of one more request: the decayed latency average times the requests it would queue behind
+         */
+        double score(long now) {
+            int queued = outstanding.get() + 1;
+            if (!peakEwma) {
+                return queued;
+            }
+            // An endpoint without observations yet costs next to nothing, so it gets probed first
+            return Math.max(decayedCost(now), 1) * queued;
+        }
+
+        /**
+         * Peak EWMA: a sample above the average replaces it at once, lower samples are blended in with a weight
+         * that grows with the time since the last update
+         */
+        synchronized void observe(long now, long rttNanos) {
+            if (rttNanos > costNanos) {
+                costNanos = rttNanos;
+            } else {
+                double w = Math.exp(-(now - costUpdatedNanos) / decayNanos);
+                costNanos = costNanos * w + rttNanos * (1 - w);
+            }
+            costUpdatedNanos = now;
+        }
+
+        /**
+         * A call cut short by the deadline only gives a lower bound on the response time: it can raise the
+         * average but never pull it down
+         */
+        synchronized void observeAtLeast(long now, long rttNanos) {
+            if (rttNanos > decayedCost(now)) {
+                costNanos = rttNanos;
+                costUpdatedNanos = now;
+            }
+        }
+
+        /**
+         * The average decays towards zero while no answers arrive, so an endpoint that was avoided for being slow
+         * gets a request again after a while and its average can recover
+         */
+        synchronized double decayedCost(long now) {
+            return costNanos * Math.exp(-Math.max(now - costUpdatedNanos, 0) / decayNanos);
+        }
+
+        synchronized void recordFailure() {
+            consecutiveFailures++;
+            if (ejectedUntilMillis == 0 && consecutiveFailures >= ejectAfterFailures && endpoints.size() > 1) {
+                long backoff = Math.min(ejectionMillis << Math.min(consecutiveEjections, 20), maxEjectionMillis);
+                consecutiveEjections++;
+                ejectedUntilMillis = System.currentTimeMillis() + backoff;
+                ejections.increment();
+                log.warn("Ejecting Power-VFD endpoint {} after {} consecutive failures for at least {} ms",
+                        url, consecutiveFailures, backoff);
+            }
+        }
+
+        /**
+         * A submission succeeded, e.g. while every endpoint was ejected
+         */
+        synchronized void answered() {
+            consecutiveEjections = 0;
+            healthCheckPassed();
+        }
+
+        synchronized void healthCheckPassed() {
+            consecutiveFailures = 0;
+            if (ejectedUntilMillis != 0 && System.currentTimeMillis() >= ejectedUntilMillis) {
+                ejectedUntilMillis = 0;
+                // Start from a clean slate rather than the latency that got it ejected
+                costNanos = 0;
+                log.info("Re-admitting Power-VFD endpoint {}", url);
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package tz.co.itrust.vfd.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+import tz.co.itrust.vfd.exceptions.DeadlineExceededException;
+import tz.co.itrust.vfd.metrics.BoundedTagValues;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Fair scheduling of Power-VFD submissions across tenants (device numbers or branches).
+ *
+ * Each tenant has its own token bucket and FIFO queue. The bucket is checked first, lock-free, and a request
+ * over its tenant's rate waits for its permit before joining the queue. At most
+ * {@code vfd.scheduler.max-concurrent} submissions are in flight, and free slots are handed out by deficit round
+ * robin over the tenants with waiting requests, so a branch replaying its offline backlog takes one turn per
+ * round instead of the whole upstream capacity.
+ * The submission still runs on the caller's thread once its slot is granted, so the request's deadline and
+ * logging context stay in place; a request whose deadline passes while queued leaves the queue.
+ */
+@Component
+@Slf4j
+public class UpstreamScheduler {
+
+    private static final long BUCKET_SWEEP_SECONDS = 10;
+
+    private final boolean enabled;
+    private final boolean tenantByBranch;
+    private final int maxConcurrent;
+    private final double tenantRatePerSecond;
+    private final int tenantBurst;
+    private final int defaultWeight;
+    private final Map<String, Integer> weights;
+    private final MeterRegistry registry;
+    private final BoundedTagValues tenantTags;
+
+    private final Object lock = new Object();
+    private final Map<String, TenantQueue> tenants = new HashMap<>();
+    private final ArrayDeque<TenantQueue> activeTenants = new ArrayDeque<>();
+    // Written holding the lock, volatile for the gauge
+    private volatile int inFlight;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> queueDepths = new ConcurrentHashMap<>();
+    private final Map<String, Timer> waitTimers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService bucketSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upstream-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UpstreamScheduler(MeterRegistry registry,
+                             @Value("${vfd.scheduler.enabled:false}") boolean enabled,
+                             @Value("${vfd.scheduler.tenant-key:devicenumber}") String tenantKey,
+                             @Value("${vfd.scheduler.max-concurrent:16}") int maxConcurrent,
+                             @Value("${vfd.scheduler.tenant-rate-per-second:0}") double tenantRatePerSecond,
+                             @Value("${vfd.scheduler.tenant-burst:10}") int tenantBurst,
+                             @Value("${vfd.scheduler.default-weight:1}") int defaultWeight,
+                             @Value("${vfd.scheduler.weights:}") String weights,
+                             @Value("${vfd.metrics.max-tag-values:100}") int maxTagValues) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.tenantByBranch = "branch".equalsIgnoreCase(tenantKey);
+        this.maxConcurrent = maxConcurrent;
+        this.tenantRatePerSecond = tenantRatePerSecond;
+        this.tenantBurst = tenantBurst;
+        this.defaultWeight = Math.max(defaultWeight, 1);
+        this.weights = parseWeights(weights);
+        this.tenantTags = new BoundedTagValues(maxTagValues);
+
+        Gauge.builder("vfd.scheduler.in-flight", this, scheduler -> scheduler.inFlight)
+                .description("Power-VFD submissions currently holding a scheduler slot")
+                .register(registry);
+        if (enabled && tenantRatePerSecond > 0) {
+            bucketSweeper.scheduleWithFixedDelay(this::evictRefilledBuckets, BUCKET_SWEEP_SECONDS, BUCKET_SWEEP_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Run the upstream call once the request's tenant gets a slot, or fail with DeadlineExceededException
+     * if the deadline passes while it is queued
+     */
+    public <T> T schedule(VfdReceiptRequest request, Deadline deadline, Supplier<T> upstreamCall) {
+        if (!enabled) {
+            return upstreamCall.get();
+        }
+
+        long started = System.nanoTime();
+        String tenant = tenantOf(request);
+        String tag = tenantTags.tagValue(tenant);
+        if (tenantRatePerSecond > 0) {
+            awaitPermit(tenant, tag, deadline);
+        }
+        Ticket ticket = enqueue(tenant, tag);
+        try {
+            if (!ticket.granted.await(deadline.remainingMillis(), TimeUnit.MILLISECONDS) && !cancel(ticket)) {
+                throw new DeadlineExceededException("Request deadline exceeded while queued for Power-VFD (tenant "
+                        + tenant + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!cancel(ticket)) {
+                throw new DeadlineExceededException("Interrupted while queued for Power-VFD");
+            }
+        }
+
+        ticket.waitTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        try {
+            return upstreamCall.get();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Reserve the tenant's next permit and sleep until it is due, outside the lock. Fails at once if the permit
+     * would come after the deadline.
+     */
+    private void awaitPermit(String tenant, String tag, Deadline deadline) {
+        long waitNanos = bucket(tenant).reserve(TimeUnit.MILLISECONDS.toNanos(deadline.remainingMillis()));
+        if (waitNanos < 0) {
+            throw new DeadlineExceededException("Request deadline exceeded waiting for the rate limit of tenant "
+                    + tenant);
+        }
+        if (waitNanos == 0) {
+            return;
+        }
+        AtomicInteger depth = queueDepth(tag);
+        depth.incrementAndGet();
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeadlineExceededException("Interrupted while waiting for the rate limit of tenant " + tenant);
+        } finally {
+            depth.decrementAndGet();
+        }
+    }
+
+    private Ticket enqueue(String tenant, String tag) {
+        Ticket ticket = new Ticket(tenant, tag, waitTimer(tag));
+        synchronized (lock) {
+            TenantQueue queue = tenants.computeIfAbsent(tenant, t -> new TenantQueue(t, tag,
+                    weights.getOrDefault(t, defaultWeight)));
+            queue.tickets.add(ticket);
+            queueDepth(tag).incrementAndGet();
+            if (!queue.active) {
+                queue.active = true;
+                activeTenants.add(queue);
+            }
+            dispatch();
+        }
+        return ticket;
+    }
+
+    /**
+     * Remove a ticket that gave up waiting. Returns true if the slot was granted in the meantime, in which case
+     * the caller owns the slot and must go ahead (and release it).
+     */
+    private boolean cancel(Ticket ticket) {
+        synchronized (lock) {
+            if (ticket.granted.getCount() == 0) {
+                return true;
+            }
+            TenantQueue queue = tenants.get(ticket.tenant);
+            if (queue != null && queue.tickets.remove(ticket)) {
+                queueDepth(ticket.tag).decrementAndGet();
+            }
+            return false;
+        }
+    }
+
+    private void release() {
+        synchronized (lock) {
+            inFlight--;
+            dispatch();
+        }
+    }
+
+    /**
+     * Deficit round robin: the tenant at the head of the ring gets {@code weight} submissions per turn, then moves
+     * to the back. Must be called holding the lock.
+     */
+    private void dispatch() {
+        while (inFlight < maxConcurrent && !activeTenants.isEmpty()) {
+            TenantQueue queue = activeTenants.peekFirst();
+            if (queue.tickets.isEmpty()) {
+                activeTenants.pollFirst();
+                tenants.remove(queue.tenant);
+                continue;
+            }
+            if (!queue.inTurn) {
+                queue.deficit += queue.weight;
+                queue.inTurn = true;
+            }
+
+            while (queue.deficit > 0 && !queue.tickets.isEmpty() && inFlight < maxConcurrent) {
+                Ticket ticket = queue.tickets.poll();
+                queue.deficit--;
+                inFlight++;
+                queueDepth(ticket.tag).decrementAndGet();
+                ticket.granted.countDown();
+            }
+
+            if (inFlight >= maxConcurrent && queue.deficit > 0 && !queue.tickets.isEmpty()) {
+                // Out of slots mid-turn; the tenant keeps its place and deficit for the next release
+                return;
+            }
+            activeTenants.pollFirst();
+            queue.inTurn = false;
+            if (queue.tickets.isEmpty()) {
+                tenants.remove(queue.tenant);
+            } else {
+                activeTenants.addLast(queue);
+            }
+        }
+    }
+
+    private String tenantOf(VfdReceiptRequest request) {
+        String tenant = tenantByBranch ? request.getBranch() : request.getDevicenumber();
+        return tenant != null ? tenant : BoundedTagValues.NONE;
+    }
+
+    private TokenBucket bucket(String tenant) {
+        return buckets.computeIfAbsent(tenant, t -> new TokenBucket(tenantRatePerSecond, tenantBurst));
+    }
+
+    /**
+     * Tenants are client-supplied device numbers or branches, so their buckets must not pile up: a full bucket is
+     * the same as a new one and is dropped. A permit taken from a bucket just as it is dropped is the only one not
+     * counted against the tenant.
+     */
+    private void evictRefilledBuckets() {
+        buckets.values().removeIf(TokenBucket::isFull);
+    }
+
+    private AtomicInteger queueDepth(String tag) {
+        return queueDepths.computeIfAbsent(tag, t -> {
+            AtomicInteger depth = new AtomicInteger();
+            Gauge.builder("vfd.scheduler.queue.depth", depth, AtomicInteger::get)
+                    .description("Receipts waiting for a Power-VFD slot")
+                    .tag("tenant", t)
+                    .register(registry);
+            return depth;
+        });
+    }
+
+    private Timer waitTimer(String tag) {
+        return waitTimers.computeIfAbsent(tag, t -> Timer.builder("vfd.scheduler.wait")
+                .description("Time receipts wait for a Power-VFD slot")
+                .tag("tenant", t)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private static Map<String, Integer> parseWeights(String weights) {
+        Map<String, Integer> parsed = new HashMap<>();
+        for (String entry : weights.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator > 0) {
+                parsed.put(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+            }
+        }
+        return parsed;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bucketSweeper.shutdownNow();
+    }
+
+    private static final class TenantQueue {
+        private final String tenant;
+        private final String tag;
+        private final int weight;
+        private final ArrayDeque<Ticket> tickets = new ArrayDeque<>();
+        private boolean active;
+        private boolean inTurn;
+        private int deficit;
+
+        private TenantQueue(String tenant, String tag, int weight) {
+            this.tenant = tenant;
+            this.tag = tag;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Ticket {
+        private final String tenant;
+        private final String tag;
+        private final Timer waitTimer;
+        private final CountDownLatch granted = new CountDownLatch(1);
+
+        private Ticket(String tenant, String tag, Timer waitTimer) {
+            this.tenant = tenant;
+            this.tag = tag;
+            this.waitTimer = waitTimer;
+        }
+    }
+}
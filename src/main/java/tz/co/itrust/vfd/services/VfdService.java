@@ -1,26 +1,28 @@
 package tz.co.itrust.vfd.services;
 
+import io.opentelemetry.api.trace.Span;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionTimedOutException;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
 import tz.co.itrust.vfd.dto.VfdReceiptRequest;
 import tz.co.itrust.vfd.dto.VfdReceiptResponse;
 import tz.co.itrust.vfd.entity.VfdReceipt;
-import tz.co.itrust.vfd.entity.VfdReceiptDetail;
+import tz.co.itrust.vfd.exceptions.DeadlineExceededException;
+import tz.co.itrust.vfd.metrics.ReceiptMetrics;
 import tz.co.itrust.vfd.repository.VfdReceiptRepository;
+import tz.co.itrust.vfd.validation.ReceiptRequestValidator;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.ArrayList;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 @Service
 @RequiredArgsConstructor
@@ -29,56 +31,125 @@ public class VfdService {
 
     private final RestTemplate restTemplate;
     private final VfdReceiptRepository receiptRepository;
-    private final ObjectMapper objectMapper;
-
-    @Value("${vfd.power-vfd-url:http://41.222.92.81:8082/power-vfd-new/apis/web/auth/receiver}")
-    private String powerVfdUrl;
+    private final ReceiptMapper receiptMapper;
+    private final PlatformTransactionManager transactionManager;
+    private final ReceiptMetrics receiptMetrics;
+    private final UpstreamScheduler upstreamScheduler;
+    private final InvoiceClaimService invoiceClaimService;
+    private final ReceiptArchiveService receiptArchiveService;
+    private final InvoiceNumberFilter invoiceNumberFilter;
+    private final UpstreamEndpoints upstreamEndpoints;
 
     @Value("${vfd.enabled:true}")
     private boolean vfdEnabled;
 
-    @Value("${vfd.fcode:F1000}")
-    private String fcode;
+    @Value("${vfd.deadline.default-budget-ms:${vfd.timeout:60000}}")
+    private long defaultBudgetMs;
+
+    @Value("${vfd.deadline.store-min-ms:5000}")
+    private long storeMinBudgetMs;
+
+    @Value("${vfd.dedupe.lease-margin-ms:10000}")
+    private long claimLeaseMarginMs;
 
-    @Value("${vfd.fcodetoken:YzJVME1qTnFWV2h6TURJekxUTTROR3B6WVVveU1ESXlMVEF5TFRBektrWXhNREF3S2pBNU9qVTJPakV6TURNMExYQmpkRE15T1MweU16Z3lNdz09}")
-    private String fcodetoken;
+    @Value("${vfd.dedupe.poll-interval-ms:200}")
+    private long claimPollIntervalMs;
 
     public VfdReceiptResponse processReceipt(VfdReceiptRequest request) {
+        Deadline deadline = DeadlineContext.current() != null ? DeadlineContext.current() : Deadline.after(defaultBudgetMs);
         try {
-            log.info("Processing VFD receipt request: {}", request.getCustinvoiceno());
+            log.info("Processing VFD receipt request: {} ({})", request.getCustinvoiceno(), deadline);
+            Span.current().setAttribute("vfd.custinvoiceno", request.getCustinvoiceno());
             
-            // Check if receipt already exists to prevent duplicate external VFD calls
-            Optional<VfdReceipt> existingReceipt = receiptRepository.findByCustinvoicenoAndVfdStatusAndRctvcodeIsNotNull(
-                request.getCustinvoiceno(), "success");
-            if (existingReceipt.isPresent()) {
-                VfdReceipt receipt = existingReceipt.get();
-                log.info("Receipt {} already exists with successful VFD data (ID: {}), returning cached response", 
-                    request.getCustinvoiceno(), receipt.getId());
-                return buildResponseFromExistingReceipt(receipt);
+            // Check if receipt already exists to prevent duplicate external VFD calls. An invoice number the
+            // filter has never seen skips these queries; the re-check after claiming still goes to the database.
+            Optional<VfdReceiptResponse> cached = Optional.empty();
+            if (invoiceNumberFilter.mightContain(request.getCustinvoiceno())) {
+                cached = findSuccessfulReceipt(request, deadline);
+                if (cached.isPresent()) {
+                    return cached.get();
+                }
+
+                // Check for any existing receipt (even failed ones) for logging purposes
+                deadline.checkNotExpired("duplicate check");
+                Optional<VfdReceipt> anyExistingReceipt = receiptMetrics.timeStage(ReceiptMetrics.STAGE_DUPLICATE_LOOKUP, () ->
+                        withTimeout(deadline.remainingSeconds(), () -> receiptRepository.findFirstByCustinvoicenoOrderByIdDesc(request.getCustinvoiceno())));
+                if (anyExistingReceipt.isPresent()) {
+                    VfdReceipt receipt = anyExistingReceipt.get();
+                    log.info("Receipt {} already exists (ID: {}) but with status: {}, will process fresh request",
+                        request.getCustinvoiceno(), receipt.getId(), receipt.getVfdStatus());
+                } else {
+                    invoiceNumberFilter.recordFalsePositive();
+                }
             }
-            
-            // Check for any existing receipt (even failed ones) for logging purposes
-            Optional<VfdReceipt> anyExistingReceipt = receiptRepository.findByCustinvoiceno(request.getCustinvoiceno());
-            if (anyExistingReceipt.isPresent()) {
-                VfdReceipt receipt = anyExistingReceipt.get();
-                log.info("Receipt {} already exists (ID: {}) but with status: {}, will process fresh request", 
-                    request.getCustinvoiceno(), receipt.getId(), receipt.getVfdStatus());
+
+            // Claim the invoice so no other request, on this or another instance, fiscalises it concurrently.
+            // The lease covers the rest of the deadline plus the store budget, which bounds the whole attempt.
+            String claim = null;
+            while (claim == null) {
+                deadline.checkNotExpired("claiming invoice");
+                long leaseMs = deadline.remainingMillis() + storeMinBudgetMs + claimLeaseMarginMs;
+                claim = receiptMetrics.timeStage(ReceiptMetrics.STAGE_CLAIM, () ->
+                        invoiceClaimService.tryClaim(request.getCustinvoiceno(), leaseMs)).orElse(null);
+                if (claim == null) {
+                    log.info("Receipt {} is being processed by another request, waiting for its result", request.getCustinvoiceno());
+                    Thread.sleep(Math.max(Math.min(claimPollIntervalMs, deadline.remainingMillis()), 1));
+                    cached = findSuccessfulReceipt(request, deadline);
+                    if (cached.isPresent()) {
+                        return cached.get();
+                    }
+                }
             }
-            
-            validateRequest(request);
-            VfdReceiptResponse vfdResponse = forwardToPowerVfd(request);
-            
-            // Store receipt asynchronously after returning response
+
+            boolean releaseClaim = true;
             try {
-                storeReceipt(request, vfdResponse);
+                // The previous holder may have stored a receipt between the first check and the claim
+                cached = findSuccessfulReceipt(request, deadline);
+                if (cached.isPresent()) {
+                    return cached.get();
+                }
+
+                deadline.checkNotExpired("validation");
+                receiptMetrics.timeStage(ReceiptMetrics.STAGE_VALIDATE, () -> {
+                    validateRequest(request);
+                    return null;
+                });
+
+                deadline.checkNotExpired("forwarding to Power-VFD");
+                VfdReceiptResponse vfdResponse = forwardToPowerVfd(request, deadline);
+
+                // Store receipt asynchronously after returning response
+                try {
+                    // The receipt may already be fiscalised upstream, so it is stored even when the
+                    // caller's deadline has passed; it is what stops the retry from fiscalising it twice
+                    long storeBudgetMs = Math.max(deadline.remainingMillis(), storeMinBudgetMs);
+                    receiptMetrics.timeStage(ReceiptMetrics.STAGE_STORE, () ->
+                            withTimeout(Deadline.after(storeBudgetMs).remainingSeconds(), () -> storeReceipt(request, vfdResponse)));
                 } catch (Exception e) {
-                log.error("Error storing receipt to database: {}", e.getMessage(), e);
-                // Don't fail the request if storage fails
+                    log.error("Error storing receipt to database: {}", e.getMessage(), e);
+                    // Don't fail the request if storage fails, but keep the claim until its lease
+                    // expires so a retry does not immediately fiscalise the invoice a second time
+                    releaseClaim = vfdResponse == null || !"success".equals(vfdResponse.getStatus());
+                }
+
+                receiptMetrics.recordOutcome(classifyOutcome(vfdResponse), request);
+                return vfdResponse;
+            } finally {
+                if (releaseClaim) {
+                    invoiceClaimService.release(request.getCustinvoiceno(), claim);
+                }
             }
-            
-            return vfdResponse;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            receiptMetrics.recordOutcome(ReceiptMetrics.OUTCOME_DEADLINE_EXCEEDED, request);
+            return buildDeadlineExceededResponse("Interrupted while waiting for a concurrent submission of the same invoice");
+        } catch (DeadlineExceededException | TransactionTimedOutException | QueryTimeoutException e) {
+            log.warn("Abandoning VFD receipt {}: {}", request.getCustinvoiceno(), e.getMessage());
+            receiptMetrics.recordOutcome(ReceiptMetrics.OUTCOME_DEADLINE_EXCEEDED, request);
+            return buildDeadlineExceededResponse(e.getMessage());
         } catch (Exception e) {
             log.error("Error processing VFD receipt: {}", e.getMessage(), e);
+            receiptMetrics.recordOutcome(ReceiptMetrics.OUTCOME_ERROR, request);
             return VfdReceiptResponse.builder()
                     .status("error")
                     .errorMessage("Failed to process receipt: " + e.getMessage())
@@ -88,7 +159,27 @@ public class VfdService {
         }
     }
 
-    private VfdReceiptResponse forwardToPowerVfd(VfdReceiptRequest request) {
+    /**
+     * Successful receipt already stored for the request's invoice, as a cached response.
+     * Read-write transaction so the check always sees the primary, never a lagging replica.
+     */
+    private Optional<VfdReceiptResponse> findSuccessfulReceipt(VfdReceiptRequest request, Deadline deadline) {
+        deadline.checkNotExpired("duplicate check");
+        Optional<VfdReceipt> existingReceipt = receiptMetrics.timeStage(ReceiptMetrics.STAGE_DUPLICATE_LOOKUP, () ->
+                withTimeout(deadline.remainingSeconds(), () ->
+                        receiptRepository.findByCustinvoicenoAndVfdStatusAndRctvcodeIsNotNull(request.getCustinvoiceno(), "success"))
+                        .or(() -> receiptArchiveService.findSuccessfulByCustinvoiceno(request.getCustinvoiceno())));
+        if (existingReceipt.isEmpty()) {
+            return Optional.empty();
+        }
+        VfdReceipt receipt = existingReceipt.get();
+        log.info("Receipt {} already exists with successful VFD data (ID: {}), returning cached response",
+            request.getCustinvoiceno(), receipt.getId());
+        receiptMetrics.recordOutcome(ReceiptMetrics.OUTCOME_CACHED, request);
+        return Optional.of(receiptMapper.buildResponseFromExistingReceipt(receipt));
+    }
+
+    private VfdReceiptResponse forwardToPowerVfd(VfdReceiptRequest request, Deadline deadline) {
         if (!vfdEnabled) {
             log.warn("VFD is disabled, returning error response");
             return VfdReceiptResponse.builder()
@@ -103,21 +194,30 @@ public class VfdService {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
 
-            Object transformedRequest = transformRequestToExternalFormat(request);
+            Object transformedRequest = receiptMetrics.timeStage(ReceiptMetrics.STAGE_TRANSFORM,
+                    () -> receiptMapper.transformRequestToExternalFormat(request));
 
             HttpEntity<Object> entity = new HttpEntity<>(transformedRequest, headers);
 
-            log.info("Forwarding request to Power-VFD: {}", powerVfdUrl);
             log.info("Transformed request format: {}", transformedRequest);
 
-            ResponseEntity<VfdReceiptResponse> response = restTemplate.postForEntity(
-                    powerVfdUrl, entity, VfdReceiptResponse.class);
+            ResponseEntity<VfdReceiptResponse> response = upstreamScheduler.schedule(request, deadline, () ->
+                    receiptMetrics.timeStage(ReceiptMetrics.STAGE_UPSTREAM,
+                            () -> upstreamEndpoints.execute(url -> {
+                                log.info("Forwarding request to Power-VFD: {}", url);
+                                return restTemplate.postForEntity(url, entity, VfdReceiptResponse.class);
+                            })));
 
             log.info("Power-VFD response: {}", response.getBody());
             return response.getBody();
             
         } catch (Exception e) {
             log.error("Error forwarding to Power-VFD: {}", e.getMessage(), e);
+
+            // The read timeout was cut short by the caller's deadline, nobody is waiting for this answer
+            if (deadline.isExpired()) {
+                return buildDeadlineExceededResponse("Request deadline exceeded while waiting for Power-VFD");
+            }
             
             // For connection-related errors, return a proper error response
             if (e.getMessage() != null && (
@@ -147,112 +247,43 @@ public class VfdService {
         }
     }
 
-    private Object transformRequestToExternalFormat(VfdReceiptRequest request) {
-        // Transform to match the exact payload format specified by user
-        Map<String, Object> requestBody = new HashMap<>();
-        
-        Map<String, Object> invoice = new HashMap<>();
-        invoice.put("idate", request.getIdate());
-        invoice.put("itime", request.getItime());
-        invoice.put("custinvoiceno", request.getCustinvoiceno() != null ? request.getCustinvoiceno() : "");
-        invoice.put("custidtype", String.valueOf(request.getCustidtype()));
-        invoice.put("custid", request.getCustid() != null ? request.getCustid() : "");
-        invoice.put("custname", request.getCustname() != null ? request.getCustname() : "");
-        invoice.put("username", request.getUsername() != null ? request.getUsername() : "");
-        invoice.put("branch", request.getBranch() != null ? request.getBranch() : "");
-        invoice.put("department", request.getDepartment() != null ? request.getDepartment() : "");
-        invoice.put("device_number", request.getDevicenumber() != null ? request.getDevicenumber() : "");
-        invoice.put("paytype", String.valueOf(request.getPaytype()));
-        // Include fcode and fcodetoken within each invoice object as specified
-        invoice.put("fcode", fcode);
-        invoice.put("fcodetoken", fcodetoken);
-
-        List<Map<String, Object>> invoiceDetails = request.getInvoiceDetails().stream()
-                .map(detail -> {
-                    Map<String, Object> detailMap = new HashMap<>();
-                    detailMap.put("description", detail.getDescription());
-                    detailMap.put("qty", detail.getQty());
-                    detailMap.put("taxcode", detail.getTaxcode());
-                    detailMap.put("amt", detail.getAmt());
-                    return detailMap;
-                })
-                .collect(Collectors.toList());
-
-        invoice.put("invoiceDetails", invoiceDetails);
-
-        List<Map<String, Object>> invoiceList = new ArrayList<>();
-        invoiceList.add(invoice);
-        requestBody.put("invoice", invoiceList);
-        
-        return requestBody;
+    /**
+     * Run the given database work in a transaction whose statements time out after the given number of seconds
+     */
+    private <T> T withTimeout(int timeoutSeconds, Supplier<T> work) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setTimeout(timeoutSeconds);
+        return template.execute(status -> work.get());
     }
 
-    private VfdReceipt storeReceipt(VfdReceiptRequest request, VfdReceiptResponse response) {
-        try {
-            BigDecimal totalAmount = request.getInvoiceDetails().stream()
-                    .map(VfdReceiptRequest.VfdInvoiceDetail::getAmt)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            // Store the complete external request and response
-            String externalRequest = null;
-            String externalResponse = null;
-            try {
-                externalRequest = objectMapper.writeValueAsString(request);
-                externalResponse = objectMapper.writeValueAsString(response);
-            } catch (Exception e) {
-                log.warn("Failed to serialize request/response: {}", e.getMessage());
+    private String classifyOutcome(VfdReceiptResponse response) {
+        if (response != null && "success".equals(response.getStatus())) {
+            return ReceiptMetrics.OUTCOME_SUCCESS;
+        }
+        if (response != null && response.getStatusCode() != null) {
+            if (response.getStatusCode() == 504) {
+                return ReceiptMetrics.OUTCOME_DEADLINE_EXCEEDED;
+            }
+            if (response.getStatusCode() == 503) {
+                return ReceiptMetrics.OUTCOME_UNREACHABLE;
             }
+        }
+        return ReceiptMetrics.OUTCOME_UPSTREAM_ERROR;
+    }
 
-            VfdReceipt receipt = VfdReceipt.builder()
-                    .idate(request.getIdate())
-                    .itime(request.getItime())
-                    .custinvoiceno(request.getCustinvoiceno())
-                    .custidtype(request.getCustidtype())
-                    .custid(request.getCustid())
-                    .custname(request.getCustname())
-                    .mobilenum(request.getMobilenum())
-                    .branch(request.getBranch())
-                    .department(request.getDepartment())
-                    .devicenumber(request.getDevicenumber())
-                    .paytype(request.getPaytype())
-                    .username(request.getUsername())
-                    .totalAmount(totalAmount)
-                    .createdAt(LocalDateTime.now())
-                    .vfdResponse(response != null ? response.toString() : null)
-                    .qrCodePath(response != null ? response.getQrpath() : null)
-                    .receiptNumber(response != null ? response.getVfdinvoicenum() : null)
-                    // New VFD response fields
-                    .rctvnum(response != null ? response.getRctvnum() : null)
-                    .rctvcode(response != null ? response.getRctvcode() : null)
-                    .znumber(response != null ? response.getZnumber() : null)
-                    .qrpath(response != null ? response.getQrpath() : null)
-                    .qrcodeUri(response != null ? response.getQrcode_uri() : null)
-                    .statusCodeText(response != null ? response.getStatusCodeText() : null)
-                    .errorMessage(response != null ? response.getErrorMessage() : null)
-                    // New VFD request fields
-                    .fcodeToken(fcodetoken)
-                    .fcode(fcode)
-                    .custidType(request.getCustidtype())
-                    // Complete request/response storage
-                    .externalVfdRequest(externalRequest)
-                    .externalVfdResponse(externalResponse)
-                    // VFD status fields
-                    .vfdStatus(response != null ? response.getStatus() : null)
-                    .vfdHttpStatus(response != null ? response.getStatusCode() : null)
-                    .build();
+    private VfdReceiptResponse buildDeadlineExceededResponse(String message) {
+        return VfdReceiptResponse.builder()
+                .status("error")
+                .errorMessage(message)
+                .statusCode(504)
+                .statusCodeText("Gateway Timeout")
+                .build();
+    }
 
-            List<VfdReceiptDetail> details = request.getInvoiceDetails().stream()
-                    .map(detail -> VfdReceiptDetail.builder()
-                            .receipt(receipt)
-                            .description(detail.getDescription())
-                            .qty(detail.getQty())
-                            .taxcode(detail.getTaxcode())
-                            .amt(detail.getAmt())
-                            .build())
-                    .collect(Collectors.toList());
-
-            receipt.setReceiptDetails(details);
-            VfdReceipt savedReceipt = receiptRepository.save(receipt);
+    private VfdReceipt storeReceipt(VfdReceiptRequest request, VfdReceiptResponse response) {
+        try {
+            VfdReceipt savedReceipt = receiptRepository.save(receiptMapper.buildReceiptEntity(request, response));
+            invoiceNumberFilter.add(savedReceipt.getCustinvoiceno());
             log.info("Receipt saved with ID: {}", savedReceipt.getId());
             return savedReceipt;
             
@@ -262,7 +293,7 @@ public class VfdService {
         }
     }
 
-    private void validateRequest(VfdReceiptRequest request) {
+    static void validateRequest(VfdReceiptRequest request) {
         if (request.getCustidtype() >= 1 && request.getCustidtype() <= 5) {
             if (request.getCustid() == null || request.getCustid().trim().isEmpty()) {
                 throw new IllegalArgumentException("Customer ID is required for ID type " + request.getCustidtype());
@@ -270,77 +301,76 @@ public class VfdService {
         }
 
         if (request.getCustidtype() == 1 && request.getCustid() != null) {
-            if (!request.getCustid().matches("\\d{9}")) {
+            if (!ReceiptRequestValidator.isDigits(request.getCustid(), 9)) {
                 throw new IllegalArgumentException("TIN must be exactly 9 digits");
             }
         }
     }
 
     // Enhanced query methods using new fields
+    // Lookup and reporting queries run in read-only transactions, which are served by the read replica when one is configured.
+    // Single-receipt lookups fall back to the cold archive for receipts moved out of the database.
+    @Transactional(readOnly = true)
     public Optional<VfdReceipt> findByReceiptCode(String rctvcode) {
-        return receiptRepository.findByRctvcode(rctvcode);
+        return receiptRepository.findByRctvcode(rctvcode).or(() -> receiptArchiveService.findByReceiptCode(rctvcode));
     }
 
+    /**
+     * Latest receipt of the Z report; many receipts share a Z number
+     */
+    @Transactional(readOnly = true)
     public Optional<VfdReceipt> findByZNumber(String znumber) {
-        return receiptRepository.findByZnumber(znumber);
+        return receiptRepository.findFirstByZnumberOrderByIdDesc(znumber).or(() -> receiptArchiveService.findByZNumber(znumber));
     }
 
+    @Transactional(readOnly = true)
     public List<VfdReceipt> findSuccessfulReceipts() {
         return receiptRepository.findByVfdStatusAndVfdHttpStatus("success", 200);
     }
 
+    @Transactional(readOnly = true)
     public List<VfdReceipt> findErrorReceipts() {
         return receiptRepository.findByVfdStatus("error");
     }
 
+    @Transactional(readOnly = true)
     public List<VfdReceipt> findReceiptsByDateRange(String startDate, String endDate) {
         return receiptRepository.findByIdateBetween(startDate, endDate);
     }
 
+    @Transactional(readOnly = true)
     public List<VfdReceipt> findReceiptsByStatus(String status) {
         return receiptRepository.findByVfdStatusOrderByCreatedAtDesc(status);
     }
 
+    @Transactional(readOnly = true)
+    public Optional<VfdReceipt> findLatestByCustinvoiceno(String custinvoiceno) {
+        return receiptRepository.findFirstByCustinvoicenoOrderByIdDesc(custinvoiceno)
+                .or(() -> receiptArchiveService.findLatestByCustinvoiceno(custinvoiceno));
+    }
+
+    @Transactional(readOnly = true)
     public Optional<VfdReceipt> findByReceiptCodeOrZNumber(String rctvcode, String znumber) {
-        return receiptRepository.findByRctvcodeOrZnumber(rctvcode, znumber);
+        return receiptRepository.findFirstByRctvcodeOrZnumberOrderByIdDesc(rctvcode, znumber);
     }
 
     /**
-     * Check if a receipt with given custinvoiceno already exists and has successful VFD data
+     * Check if a receipt with given custinvoiceno already exists and has successful VFD data.
+     * Read-write transaction so the check always sees the primary, never a lagging replica.
      */
+    @Transactional
     public boolean isDuplicateReceipt(String custinvoiceno) {
-        return receiptRepository.findByCustinvoicenoAndVfdStatusAndRctvcodeIsNotNull(custinvoiceno, "success").isPresent();
+        return receiptRepository.findByCustinvoicenoAndVfdStatusAndRctvcodeIsNotNull(custinvoiceno, "success").isPresent()
+                || receiptArchiveService.findSuccessfulByCustinvoiceno(custinvoiceno).isPresent();
     }
 
     /**
-     * Get cached receipt data for a given custinvoiceno
+     * Get cached receipt data for a given custinvoiceno (read from the primary, see isDuplicateReceipt)
      */
+    @Transactional
     public Optional<VfdReceiptResponse> getCachedReceipt(String custinvoiceno) {
-        Optional<VfdReceipt> receipt = receiptRepository.findByCustinvoicenoAndVfdStatusAndRctvcodeIsNotNull(custinvoiceno, "success");
-        return receipt.map(this::buildResponseFromExistingReceipt);
+        Optional<VfdReceipt> receipt = receiptRepository.findByCustinvoicenoAndVfdStatusAndRctvcodeIsNotNull(custinvoiceno, "success")
+                .or(() -> receiptArchiveService.findSuccessfulByCustinvoiceno(custinvoiceno));
+        return receipt.map(receiptMapper::buildResponseFromExistingReceipt);
     }
-
-    /**
-     * Build VfdReceiptResponse from existing receipt data (cached response)
-     */
-    private VfdReceiptResponse buildResponseFromExistingReceipt(VfdReceipt receipt) {
-        log.info("Building cached response for receipt: {} (ID: {})", receipt.getCustinvoiceno(), receipt.getId());
-        
-        return VfdReceiptResponse.builder()
-                .rctvnum(receipt.getRctvnum())
-                .rctvcode(receipt.getRctvcode())
-                .znumber(receipt.getZnumber())
-                .vfdinvoicenum(receipt.getReceiptNumber() != null ? receipt.getReceiptNumber() : receipt.getCustinvoiceno())
-                .idate(receipt.getIdate())
-                .itime(receipt.getItime())
-                .senttime(receipt.getCreatedAt() != null ? receipt.getCreatedAt().toString() : receipt.getItime())
-                .message("Success (cached)")
-                .status("success")
-                .qrpath(receipt.getQrpath())
-                .qrcode_uri(receipt.getQrcodeUri())
-                .statusCodeText(receipt.getStatusCodeText() != null ? receipt.getStatusCodeText() : "HTTP_OK")
-                .statusCode(receipt.getVfdHttpStatus() != null ? receipt.getVfdHttpStatus() : 200)
-                .build();
-    }
-
-} 
\ No newline at end of file
+}
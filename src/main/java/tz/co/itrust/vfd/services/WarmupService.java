@@ -0,0 +1,332 @@
+package tz.co.itrust.vfd.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+import tz.co.itrust.vfd.dto.VfdReceiptResponse;
+import tz.co.itrust.vfd.validation.ReceiptRequestValidator;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Warms the service up before it is marked ready, so the first requests after a deploy or rolling restart are
+ * not several times slower than the rest.
+ *
+ * Runs as an {@link ApplicationReadyEvent} listener: Spring Boot only publishes readiness ACCEPTING_TRAFFIC (the
+ * readiness probe turning UP) after these listeners return, while the web server is already listening, so the
+ * warm-up can call this instance over HTTP without receiving real traffic. The warm-up
+ * <ul>
+ *   <li>opens the connections of every database pool (primary and, when enabled, replica) and runs the
+ *       duplicate-check and lookup queries,</li>
+ *   <li>runs synthetic receipts through Jackson, validation, {@code transformRequestToExternalFormat} and
+ *       receipt building, with a canned Power-VFD answer instead of the upstream call (JIT and serializer caches),</li>
+ *   <li>sends status lookups through the servlet stack, security and controller mapping,</li>
+ *   <li>waits for the invoice number filter to be built,</li>
+ *   <li>opens connections to Power-VFD (HEAD requests, no receipt is sent). This is the last step: the JDK HTTP
+ *       client closes a kept-alive connection after 5 s idle unless the server advertises a longer timeout, so
+ *       connections opened any earlier would be gone before the first receipt.</li>
+ * </ul>
+ * Nothing is stored or fiscalised, failures are logged and never keep the instance from becoming ready, and the
+ * whole warm-up is bounded by {@code vfd.warmup.max-duration-ms}.
+ */
+@Service
+@Slf4j
+public class WarmupService {
+
+    private static final String WARMUP_INVOICE_PREFIX = "WARMUP-";
+
+    private final VfdService vfdService;
+    private final ReceiptMapper receiptMapper;
+    private final ReceiptRequestValidator receiptRequestValidator;
+    private final ObjectMapper objectMapper;
+    private final RestTemplate restTemplate;
+    private final DataSource dataSource;
+    private final List<HikariDataSource> pools;
+    private final InvoiceNumberFilter invoiceNumberFilter;
+    private final UpstreamEndpoints upstreamEndpoints;
+
+    @Value("${vfd.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${vfd.warmup.max-duration-ms:30000}")
+    private long maxDurationMs;
+
+    @Value("${vfd.warmup.iterations:3000}")
+    private int iterations;
+
+    @Value("${vfd.warmup.http-requests:200}")
+    private int httpRequests;
+
+    // 0: each pool's maximum-pool-size
+    @Value("${vfd.warmup.db-connections:0}")
+    private int dbConnections;
+
+    @Value("${vfd.warmup.upstream-connections:4}")
+    private int upstreamConnections;
+
+    @Value("${vfd.enabled:true}")
+    private boolean vfdEnabled;
+
+    @Value("${server.servlet.context-path:}")
+    private String contextPath;
+
+    public WarmupService(VfdService vfdService,
+                         ReceiptMapper receiptMapper,
+                         ReceiptRequestValidator receiptRequestValidator,
+                         ObjectMapper objectMapper,
+                         RestTemplate restTemplate,
+                         DataSource dataSource,
+                         ObjectProvider<HikariDataSource> pools,
+                         InvoiceNumberFilter invoiceNumberFilter,
+                         UpstreamEndpoints upstreamEndpoints) {
+        this.vfdService = vfdService;
+        this.receiptMapper = receiptMapper;
+        this.receiptRequestValidator = receiptRequestValidator;
+        this.objectMapper = objectMapper;
+        this.restTemplate = restTemplate;
+        this.dataSource = dataSource;
+        this.pools = pools.orderedStream().collect(Collectors.toList());
+        this.invoiceNumberFilter = invoiceNumberFilter;
+        this.upstreamEndpoints = upstreamEndpoints;
+    }
+
+    // Before the other ready listeners, e.g. the training-run exit, so a CDS training run records a warm application
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE - 100)
+    public void warmUp(ApplicationReadyEvent event) {
+        if (!enabled) {
+            return;
+        }
+        Deadline deadline = Deadline.after(maxDurationMs);
+        long started = System.nanoTime();
+        log.info("Warming up before accepting traffic (at most {} ms)", maxDurationMs);
+
+        step("database connections", this::openDatabaseConnections);
+        step("receipt pipeline", () -> runSyntheticReceipts(deadline));
+        step("HTTP requests", () -> sendLookups(event, deadline));
+        step("invoice filter", () -> awaitInvoiceFilter(deadline));
+        step("upstream connections", () -> openUpstreamConnections(deadline));
+
+        log.info("Warm-up finished in {} ms", (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void step(String name, WarmupStep step) {
+        long started = System.nanoTime();
+        try {
+            String result = step.run();
+            log.info("Warm-up {}: {} in {} ms", name, result, (System.nanoTime() - started) / 1_000_000);
+        } catch (Exception e) {
+            log.warn("Warm-up {} failed after {} ms: {}", name, (System.nanoTime() - started) / 1_000_000, e.getMessage());
+        }
+    }
+
+    /**
+     * Hold as many connections as each pool allows at once, so all of them are opened now rather than by the first
+     * concurrent requests, then run the hot-path queries. The pools are taken directly: with a read replica the
+     * application's DataSource is a LazyConnectionDataSourceProxy, whose connections only reach a pool on the
+     * first statement.
+     */
+    private String openDatabaseConnections() throws SQLException {
+        List<String> opened = new ArrayList<>();
+        for (HikariDataSource pool : pools) {
+            int size = dbConnections > 0 ? Math.min(dbConnections, pool.getMaximumPoolSize()) : pool.getMaximumPoolSize();
+            opened.add(pool.getPoolName() + " " + holdConnections(pool, size));
+        }
+        if (pools.isEmpty()) {
+            opened.add(String.valueOf(holdConnections(dataSource, dbConnections > 0 ? dbConnections : 10)));
+        }
+        for (int i = 0; i < 20; i++) {
+            vfdService.isDuplicateReceipt(WARMUP_INVOICE_PREFIX + i);
+            vfdService.findLatestByCustinvoiceno(WARMUP_INVOICE_PREFIX + i);
+        }
+        return "connections " + opened;
+    }
+
+    private static int holdConnections(DataSource dataSource, int count) throws SQLException {
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                Connection connection = dataSource.getConnection();
+                connections.add(connection);
+                connection.isValid(1);
+            }
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+        return connections.size();
+    }
+
+    /**
+     * Open connections to every Power-VFD endpoint with concurrent HEAD requests; the JDK keeps them alive for
+     * the first receipts. The time of each HEAD (connect, plus TLS where used, plus one round trip) is reported
+     * separately, as the cost the first receipts would otherwise pay on top of the Power-VFD call itself.
+     */
+    private String openUpstreamConnections(Deadline deadline) {
+        if (!vfdEnabled || upstreamConnections <= 0) {
+            return "skipped";
+        }
+        // Daemon threads: a connect to an unreachable upstream cannot be interrupted and must not delay shutdown
+        ExecutorService executor = Executors.newFixedThreadPool(upstreamConnections * upstreamEndpoints.urls().size(), runnable -> {
+            Thread thread = new Thread(runnable, "warmup-upstream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Integer>> heads = new ArrayList<>();
+            List<Long> latenciesMs = Collections.synchronizedList(new ArrayList<>());
+            for (String url : upstreamEndpoints.urls()) {
+                for (int i = 0; i < upstreamConnections; i++) {
+                    heads.add(executor.submit(() -> {
+                        long started = System.nanoTime();
+                        try {
+                            return restTemplate.execute(url, HttpMethod.HEAD, null, ClientHttpResponse::getRawStatusCode);
+                        } finally {
+                            latenciesMs.add((System.nanoTime() - started) / 1_000_000);
+                        }
+                    }));
+                }
+            }
+            List<String> statuses = new ArrayList<>();
+            for (Future<Integer> head : heads) {
+                try {
+                    statuses.add(String.valueOf(head.get(Math.min(deadline.remainingMillis(), 10_000), TimeUnit.MILLISECONDS)));
+                } catch (Exception e) {
+                    // An error status still leaves an open connection behind
+                    statuses.add(e.getCause() != null ? e.getCause().getClass().getSimpleName() : e.getClass().getSimpleName());
+                }
+            }
+            List<Long> sorted;
+            synchronized (latenciesMs) {
+                sorted = latenciesMs.stream().sorted().collect(Collectors.toList());
+            }
+            return heads.size() + " connections, responses " + statuses
+                    + (sorted.isEmpty() ? "" : ", first-call latency min " + sorted.get(0) + " ms, max "
+                    + sorted.get(sorted.size() - 1) + " ms");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The receipt pipeline on synthetic requests, with the upstream call replaced by a canned answer
+     */
+    private String runSyntheticReceipts(Deadline deadline) throws Exception {
+        ObjectMapper upstreamMapper = restTemplate.getMessageConverters().stream()
+                .filter(MappingJackson2HttpMessageConverter.class::isInstance)
+                .map(converter -> ((MappingJackson2HttpMessageConverter) converter).getObjectMapper())
+                .findFirst()
+                .orElse(objectMapper);
+        int done = 0;
+        for (; done < iterations && !deadline.isExpired(); done++) {
+            byte[] json = objectMapper.writeValueAsBytes(syntheticRequest(done));
+            VfdReceiptRequest request = objectMapper.readValue(json, VfdReceiptRequest.class);
+            receiptRequestValidator.validate(request);
+            VfdService.validateRequest(request);
+
+            Object external = receiptMapper.transformRequestToExternalFormat(request);
+            upstreamMapper.writeValueAsBytes(external);
+            VfdReceiptResponse response = upstreamMapper.readValue(
+                    upstreamMapper.writeValueAsBytes(cannedResponse(request)), VfdReceiptResponse.class);
+
+            receiptMapper.buildReceiptEntity(request, response);
+            objectMapper.writeValueAsBytes(response);
+        }
+        return done + " receipts";
+    }
+
+    /**
+     * Status lookups for unknown invoices over HTTP: servlet container, filters, security, handler mapping, Jackson
+     */
+    private String sendLookups(ApplicationReadyEvent event, Deadline deadline) {
+        if (!(event.getApplicationContext() instanceof WebServerApplicationContext)) {
+            return "skipped";
+        }
+        int port = ((WebServerApplicationContext) event.getApplicationContext()).getWebServer().getPort();
+        RestTemplate client = new RestTemplate();
+        client.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+        });
+        String url = "http://127.0.0.1:" + port + contextPath + "/receipt?custinvoiceno={no}";
+        int sent = 0;
+        for (; sent < httpRequests && !deadline.isExpired(); sent++) {
+            client.getForEntity(url, String.class, WARMUP_INVOICE_PREFIX + sent);
+        }
+        return sent + " requests";
+    }
+
+    private String awaitInvoiceFilter(Deadline deadline) throws InterruptedException {
+        while (!invoiceNumberFilter.isReady() && !deadline.isExpired()) {
+            Thread.sleep(50);
+        }
+        return invoiceNumberFilter.isReady() ? "ready" : "not ready, continuing without it";
+    }
+
+    private static VfdReceiptRequest syntheticRequest(int i) {
+        List<VfdReceiptRequest.VfdInvoiceDetail> details = new ArrayList<>();
+        for (int item = 0; item < 1 + i % 5; item++) {
+            details.add(new VfdReceiptRequest.VfdInvoiceDetail(
+                    "Warm-up item " + item, 1 + item % 3, 1 + item % 5, BigDecimal.valueOf(1000 + item, 2)));
+        }
+        return VfdReceiptRequest.builder()
+                .idate("2025-01-15")
+                .itime("10:15:30")
+                .custinvoiceno(WARMUP_INVOICE_PREFIX + i)
+                .custidtype(6)
+                .paytype(1 + i % 5)
+                .username("warmup")
+                .branch("BR-WARMUP")
+                .devicenumber("DEV-WARMUP")
+                .invoiceDetails(details)
+                .build();
+    }
+
+    private static VfdReceiptResponse cannedResponse(VfdReceiptRequest request) {
+        return VfdReceiptResponse.builder()
+                .rctvnum("https://verify.local/WARMUP")
+                .rctvcode("WARMUP")
+                .znumber("20250115")
+                .vfdinvoicenum(request.getCustinvoiceno())
+                .idate(request.getIdate())
+                .itime(request.getItime())
+                .message("Success")
+                .status("success")
+                .statusCode(200)
+                .statusCodeText("HTTP_OK")
+                .build();
+    }
+
+    @FunctionalInterface
+    private interface WarmupStep {
+        String run() throws Exception;
+    }
+}
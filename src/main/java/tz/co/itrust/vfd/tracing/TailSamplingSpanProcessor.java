@@ -0,0 +1,241 @@
+package tz.co.itrust.vfd.tracing;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.DelegatingSpanData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tail sampling: ended spans are held per trace until the local root span ends, then the whole trace is exported
+ * if any span failed, if the root took at least the slow threshold, or otherwise with the given probability.
+ *
+ * Pending traces, the spans held per trace and the export queue are all bounded, so a burst, a long request
+ * with thousands of spans or a trace whose root never ends here cannot exhaust memory. Beyond
+ * {@code maxPendingTraces} the oldest pending trace is dropped, and a kept trace is dropped when the export queue
+ * is full; both are counted. A trace with more than {@code maxSpansPerTrace} spans keeps its root, its error spans
+ * and a uniform sample of the rest, and its root carries the number of spans left out.
+ */
+public class TailSamplingSpanProcessor implements SpanProcessor {
+
+    private static final AttributeKey<Long> DROPPED_SPANS = AttributeKey.longKey("vfd.trace.dropped_spans");
+
+    private final SpanExporter exporter;
+    private final long slowThresholdNanos;
+    private final double sampleRatio;
+    private final int maxSpansPerTrace;
+    private final Map<String, PendingTrace> pendingTraces;
+    private final ThreadPoolExecutor exportExecutor;
+    private final AtomicLong droppedSpans = new AtomicLong();
+    private final AtomicLong evictedTraces = new AtomicLong();
+    private final AtomicLong rejectedExports = new AtomicLong();
+
+    public TailSamplingSpanProcessor(SpanExporter exporter, long slowThresholdMillis, double sampleRatio,
+                                     int maxPendingTraces, int maxSpansPerTrace) {
+        this.exporter = exporter;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+        this.sampleRatio = sampleRatio;
+        this.maxSpansPerTrace = Math.max(maxSpansPerTrace, 1);
+        this.pendingTraces = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PendingTrace> eldest) {
+                if (size() > maxPendingTraces) {
+                    evictedTraces.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.exportExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1000), runnable -> {
+                    Thread thread = new Thread(runnable, "trace-export");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        SpanData data = span.toSpanData();
+        SpanContext parent = span.getParentSpanContext();
+        boolean localRoot = !parent.isValid() || parent.isRemote();
+
+        PendingTrace trace;
+        synchronized (pendingTraces) {
+            if (localRoot) {
+                trace = pendingTraces.remove(data.getTraceId());
+            } else {
+                trace = pendingTraces.computeIfAbsent(data.getTraceId(), id -> new PendingTrace());
+                trace.add(data, maxSpansPerTrace);
+                return;
+            }
+        }
+
+        if (trace == null) {
+            trace = new PendingTrace();
+        }
+        if (shouldKeep(data, trace)) {
+            List<SpanData> spans = trace.spans(data);
+            try {
+                exportExecutor.execute(() -> exporter.export(spans).join(10, TimeUnit.SECONDS));
+            } catch (RejectedExecutionException e) {
+                rejectedExports.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Spans left out of traces that exceeded the per-trace limit
+     */
+    public long droppedSpans() {
+        return droppedSpans.get();
+    }
+
+    /**
+     * Traces dropped while pending because more than {@code maxPendingTraces} were in progress; only their root
+     * span can still be exported
+     */
+    public long evictedTraces() {
+        return evictedTraces.get();
+    }
+
+    /**
+     * Kept traces dropped because the export queue was full (or the processor shut down)
+     */
+    public long rejectedExports() {
+        return rejectedExports.get();
+    }
+
+    private boolean shouldKeep(SpanData root, PendingTrace trace) {
+        if (root.getEndEpochNanos() - root.getStartEpochNanos() >= slowThresholdNanos) {
+            return true;
+        }
+        if (trace.failed || root.getStatus().getStatusCode() == StatusCode.ERROR) {
+            return true;
+        }
+        return ThreadLocalRandom.current().nextDouble() < sampleRatio;
+    }
+
+    /**
+     * The ended spans of a trace whose local root is still running: error spans first, then a reservoir sample of
+     * the others, together at most the per-trace limit. Guarded by the pendingTraces lock.
+     */
+    private final class PendingTrace {
+        private final List<SpanData> errors = new ArrayList<>();
+        private final List<SpanData> others = new ArrayList<>();
+        private long othersSeen;
+        private long dropped;
+        private boolean failed;
+
+        void add(SpanData span, int limit) {
+            boolean full = errors.size() + others.size() >= limit;
+            if (span.getStatus().getStatusCode() == StatusCode.ERROR) {
+                failed = true;
+                if (full && others.isEmpty()) {
+                    drop();
+                    return;
+                }
+                if (full) {
+                    others.remove(ThreadLocalRandom.current().nextInt(others.size()));
+                    drop();
+                }
+                errors.add(span);
+                return;
+            }
+            othersSeen++;
+            if (!full) {
+                others.add(span);
+                return;
+            }
+            // Reservoir sampling: each of the spans seen so far is kept with the same probability
+            long slot = ThreadLocalRandom.current().nextLong(othersSeen);
+            if (slot < others.size()) {
+                others.set((int) slot, span);
+            }
+            drop();
+        }
+
+        private void drop() {
+            dropped++;
+            droppedSpans.incrementAndGet();
+        }
+
+        List<SpanData> spans(SpanData root) {
+            List<SpanData> spans = new ArrayList<>(errors.size() + others.size() + 1);
+            spans.addAll(errors);
+            spans.addAll(others);
+            spans.add(dropped == 0 ? root : withDroppedCount(root, dropped));
+            return spans;
+        }
+    }
+
+    private static SpanData withDroppedCount(SpanData root, long dropped) {
+        Attributes attributes = root.getAttributes().toBuilder().put(DROPPED_SPANS, dropped).build();
+        return new DelegatingSpanData(root) {
+            @Override
+            public Attributes getAttributes() {
+                return attributes;
+            }
+
+            @Override
+            public int getTotalAttributeCount() {
+                return attributes.size();
+            }
+        };
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        CompletableResultCode result = new CompletableResultCode();
+        try {
+            exportExecutor.execute(() -> exporter.flush().whenComplete(result::succeed));
+        } catch (RejectedExecutionException e) {
+            // The queued exports cannot be waited for, but the caller must not wait forever either
+            result.fail();
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        exportExecutor.shutdown();
+        try {
+            exportExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return exporter.shutdown();
+    }
+}
@@ -0,0 +1,57 @@
+package tz.co.itrust.vfd.tracing;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+/**
+ * Client span around each outbound RestTemplate call (Power-VFD), propagating the trace in the request headers
+ */
+public class TracingClientHttpRequestInterceptor implements ClientHttpRequestInterceptor {
+
+    private final OpenTelemetry openTelemetry;
+    private final Tracer tracer;
+
+    public TracingClientHttpRequestInterceptor(OpenTelemetry openTelemetry) {
+        this.openTelemetry = openTelemetry;
+        this.tracer = openTelemetry.getTracer(TracingClientHttpRequestInterceptor.class.getPackageName());
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        Span span = tracer.spanBuilder(request.getMethodValue())
+                .setSpanKind(SpanKind.CLIENT)
+                .setAttribute("http.request.method", request.getMethodValue())
+                .setAttribute("url.full", request.getURI().toString())
+                .setAttribute("server.address", request.getURI().getHost())
+                .setAttribute("http.request.body.size", body.length)
+                .startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            openTelemetry.getPropagators().getTextMapPropagator()
+                    .inject(Context.current(), request, (carrier, key, value) -> carrier.getHeaders().set(key, value));
+            ClientHttpResponse response = execution.execute(request, body);
+            int status = response.getRawStatusCode();
+            span.setAttribute("http.response.status_code", status);
+            if (status >= 400) {
+                span.setStatus(StatusCode.ERROR);
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR, e.getMessage());
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package tz.co.itrust.vfd.validation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tz.co.itrust.vfd.dto.VfdReceiptRequest;
+import tz.co.itrust.vfd.exceptions.RequestValidationException;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Validates incoming receipt requests.
+ *
+ * Two interchangeable modes, selected with {@code vfd.validation.mode}:
+ * <ul>
+ *     <li>{@code bean} - reflective Bean Validation of the annotations on {@link VfdReceiptRequest}</li>
+ *     <li>{@code fast} - a single hand-written pass enforcing the same constraints with the same messages,
+ *     without reflection or regular expressions</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class ReceiptRequestValidator {
+
+    private static final BigDecimal MIN_AMOUNT = new BigDecimal("0.01");
+
+    private final Validator validator;
+    private final boolean fastMode;
+
+    public ReceiptRequestValidator(Validator validator, @Value("${vfd.validation.mode:bean}") String mode) {
+        this.validator = validator;
+        this.fastMode = "fast".equalsIgnoreCase(mode);
+        log.info("Receipt request validation mode: {}", fastMode ? "fast" : "bean");
+    }
+
+    public void validate(VfdReceiptRequest request) {
+        if (fastMode) {
+            validateFast(request);
+        } else {
+            validateWithBeanValidation(request);
+        }
+    }
+
+    void validateWithBeanValidation(VfdReceiptRequest request) {
+        Set<ConstraintViolation<VfdReceiptRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            throw new RequestValidationException(violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    void validateFast(VfdReceiptRequest request) {
+        List<String> errors = null;
+
+        if (request.getIdate() == null) {
+            errors = add(errors, "Invoice date is required");
+        } else if (!isDate(request.getIdate())) {
+            errors = add(errors, "Date must be in YYYY-MM-DD format");
+        }
+
+        if (request.getItime() == null) {
+            errors = add(errors, "Invoice time is required");
+        } else if (!isTime(request.getItime())) {
+            errors = add(errors, "Time must be in HH:MM or HH:MM:SS format");
+        }
+
+        if (isBlank(request.getCustinvoiceno())) {
+            errors = add(errors, "Customer invoice number is required");
+        }
+
+        Integer custidtype = request.getCustidtype();
+        if (custidtype == null) {
+            errors = add(errors, "Customer ID type is required");
+        } else if (custidtype < 1 || custidtype > 6) {
+            errors = add(errors, "Customer ID type must be between 1 and 6");
+        }
+
+        Integer paytype = request.getPaytype();
+        if (paytype == null) {
+            errors = add(errors, "Payment type is required");
+        } else if (paytype < 1 || paytype > 5) {
+            errors = add(errors, "Payment type must be between 1 and 5");
+        }
+
+        List<VfdReceiptRequest.VfdInvoiceDetail> details = request.getInvoiceDetails();
+        if (details == null) {
+            errors = add(errors, "Invoice details are required");
+        } else if (details.isEmpty()) {
+            errors = add(errors, "At least one invoice detail is required");
+        } else {
+            for (int i = 0, n = details.size(); i < n; i++) {
+                VfdReceiptRequest.VfdInvoiceDetail detail = details.get(i);
+                if (detail != null) {
+                    errors = validateDetail(detail, errors);
+                }
+            }
+        }
+
+        if (errors != null) {
+            throw new RequestValidationException(errors);
+        }
+    }
+
+    private List<String> validateDetail(VfdReceiptRequest.VfdInvoiceDetail detail, List<String> errors) {
+        if (isBlank(detail.getDescription())) {
+            errors = add(errors, "Description is required");
+        }
+
+        Integer qty = detail.getQty();
+        if (qty == null) {
+            errors = add(errors, "Quantity is required");
+        } else if (qty < 1) {
+            errors = add(errors, "Quantity must be at least 1");
+        }
+
+        Integer taxcode = detail.getTaxcode();
+        if (taxcode == null) {
+            errors = add(errors, "Tax code is required");
+        } else if (taxcode < 1 || taxcode > 5) {
+            errors = add(errors, "Tax code must be between 1 and 5");
+        }
+
+        BigDecimal amt = detail.getAmt();
+        if (amt == null) {
+            errors = add(errors, "Amount is required");
+        } else if (amt.compareTo(MIN_AMOUNT) < 0) {
+            errors = add(errors, "Amount must be greater than 0");
+        }
+        return errors;
+    }
+
+    /**
+     * True if the value is exactly {@code length} ASCII digits, the equivalent of {@code value.matches("\\d{length}")}
+     */
+    public static boolean isDigits(String value, int length) {
+        return value.length() == length && isDigits(value, 0, length);
+    }
+
+    // Same shape as @Pattern("\\d{4}-\\d{2}-\\d{2}")
+    static boolean isDate(String value) {
+        return value.length() == 10
+                && isDigits(value, 0, 4) && value.charAt(4) == '-'
+                && isDigits(value, 5, 7) && value.charAt(7) == '-'
+                && isDigits(value, 8, 10);
+    }
+
+    // Same shape as @Pattern("\\d{2}:\\d{2}(:\\d{2})?")
+    static boolean isTime(String value) {
+        int length = value.length();
+        if (length != 5 && length != 8) {
+            return false;
+        }
+        boolean hoursMinutes = isDigits(value, 0, 2) && value.charAt(2) == ':' && isDigits(value, 3, 5);
+        return length == 5 ? hoursMinutes : hoursMinutes && value.charAt(5) == ':' && isDigits(value, 6, 8);
+    }
+
+    private static boolean isDigits(String value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same rule as @NotBlank: null, or nothing left after trim()
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private static List<String> add(List<String> errors, String message) {
+        if (errors == null) {
+            errors = new ArrayList<>(4);
+        }
+        errors.add(message);
+        return errors;
+    }
+}
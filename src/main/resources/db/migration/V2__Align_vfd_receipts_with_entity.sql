@@ -0,0 +1,14 @@
+-- Align vfd_receipts with the VfdReceipt entity
+-- V1 does not create every mapped column, so a freshly created database fails Hibernate validation.
+-- Every statement is idempotent for databases where the columns were already added by hand.
+
+ALTER TABLE vfd_receipts ADD COLUMN IF NOT EXISTS status_code_text VARCHAR(100);
+ALTER TABLE vfd_receipts ADD COLUMN IF NOT EXISTS fcode_token TEXT;
+ALTER TABLE vfd_receipts ADD COLUMN IF NOT EXISTS fcode VARCHAR(100);
+ALTER TABLE vfd_receipts ADD COLUMN IF NOT EXISTS custid_type INTEGER;
+ALTER TABLE vfd_receipts ADD COLUMN IF NOT EXISTS external_vfd_request TEXT;
+ALTER TABLE vfd_receipts ADD COLUMN IF NOT EXISTS external_vfd_response TEXT;
+ALTER TABLE vfd_receipts ADD COLUMN IF NOT EXISTS vfd_http_status INTEGER;
+
+-- qrcode_uri holds a base64 data URI, which does not fit in VARCHAR(500)
+ALTER TABLE vfd_receipts ALTER COLUMN qrcode_uri TYPE TEXT;
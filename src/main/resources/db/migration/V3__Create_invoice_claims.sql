@@ -0,0 +1,12 @@
+-- Cross-instance deduplication of receipt submissions
+-- An instance inserts a row before calling Power-VFD for an invoice and deletes it when done.
+-- Rows are leases: a claim whose expires_at has passed (holder crashed or hung) can be taken over.
+
+CREATE TABLE IF NOT EXISTS vfd_invoice_claims (
+    custinvoiceno VARCHAR(255) PRIMARY KEY,
+    owner VARCHAR(255) NOT NULL,
+    claimed_at TIMESTAMP WITH TIME ZONE NOT NULL,
+    expires_at TIMESTAMP WITH TIME ZONE NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_vfd_invoice_claims_expires_at ON vfd_invoice_claims(expires_at);